@@ -16,7 +16,10 @@
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
 import java.net.InetAddress;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -24,24 +27,33 @@ import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.io.FilenameUtils;
+import org.openqa.selenium.Dimension;
+import org.sugarcrm.voodoodriver.ArtifactStore;
 import org.sugarcrm.voodoodriver.BlockList;
 import org.sugarcrm.voodoodriver.BlockListParser;
 import org.sugarcrm.voodoodriver.Browser;
 import org.sugarcrm.voodoodriver.Chrome;
 import org.sugarcrm.voodoodriver.Config;
 import org.sugarcrm.voodoodriver.ConfigFileParser;
+import org.sugarcrm.voodoodriver.EventLoop;
+import org.sugarcrm.voodoodriver.EventTimings;
 import org.sugarcrm.voodoodriver.Events;
 import org.sugarcrm.voodoodriver.Firefox;
+import org.sugarcrm.voodoodriver.GridScheduler;
+import org.sugarcrm.voodoodriver.HtmlUnit;
 import org.sugarcrm.voodoodriver.IE;
 import org.sugarcrm.voodoodriver.Plugin;
 import org.sugarcrm.voodoodriver.PluginLoader;
+import org.sugarcrm.voodoodriver.RemoteBrowser;
 import org.sugarcrm.voodoodriver.SuiteParser;
+import org.sugarcrm.voodoodriver.SuiteReport;
 import org.sugarcrm.voodoodriver.SupportedBrowser;
 import org.sugarcrm.voodoodriver.Test;
 import org.sugarcrm.voodoodriver.TestResults;
 import org.sugarcrm.voodoodriver.Utils;
 import org.sugarcrm.voodoodriver.VDDException;
 import org.sugarcrm.voodoodriver.VDDHash;
+import org.sugarcrm.vddlogger.VddLiveReporter;
 
 
 /**
@@ -188,9 +200,11 @@ public class VooDooDriver {
          } else if (type.contains("cmdopt")) {
             String validCmdopts[] = {"attachtimeout", "blocklistfile",
                                      "browser", "eventtimeout",
-                                     "haltOnFailure", "maximizewindows",
-                                     "plugin", "restartcount", "restarttest",
-                                     "resultdir", "savehtml", "screenshot"};
+                                     "haltOnFailure", "headless", "livereport",
+                                     "maximizewindows", "plugin", "remote",
+                                     "restartcount", "restarttest",
+                                     "resultdir", "savehtml", "screenshot",
+                                     "softreset", "warmbrowser", "windowsize"};
             name = tmp.get("name").toString();
             value = tmp.get("value").toString();
 
@@ -208,7 +222,11 @@ public class VooDooDriver {
                         System.exit(1);
                      }
                   } else if (name.equals("haltOnFailure") ||
-                             name.equals("maximizewindows")) {
+                             name.equals("headless") ||
+                             name.equals("livereport") ||
+                             name.equals("maximizewindows") ||
+                             name.equals("softreset") ||
+                             name.equals("warmbrowser")) {
                      configOpts.put(s, Boolean.valueOf(value));
                   } else if (name.equals("plugin")) {
                      /*
@@ -301,6 +319,10 @@ public class VooDooDriver {
       opts.put("attachtimeout", 0);
       opts.put("eventtimeout", 5);
       opts.put("haltOnFailure", false);
+      opts.put("headless", false);
+      opts.put("livereport", false);
+      opts.put("softreset", false);
+      opts.put("warmbrowser", false);
       opts.put("restartcount", 0);
       opts.put("resultdir", defaultResultDir());
 
@@ -389,16 +411,31 @@ public class VooDooDriver {
          System.exit(2);
       }
 
-      switch (browserType) {
-      case FIREFOX:
-         browser = new Firefox();
-         break;
-      case CHROME:
-         browser = new Chrome();
-         break;
-      case IE:
-         browser = new IE();
-         break;
+      if (config.get("remote") != null) {
+         try {
+            String name = (browserType == SupportedBrowser.IE) ?
+               "internet explorer" : browserType.toString().toLowerCase();
+            browser = new RemoteBrowser(new URL((String)config.get("remote")),
+                                        name);
+         } catch (MalformedURLException e) {
+            System.out.println("(!)Invalid --remote URL: " + e.getMessage());
+            System.exit(2);
+         }
+      } else {
+         switch (browserType) {
+         case FIREFOX:
+            browser = new Firefox();
+            break;
+         case CHROME:
+            browser = new Chrome();
+            break;
+         case IE:
+            browser = new IE();
+            break;
+         case HTMLUNIT:
+            browser = new HtmlUnit();
+            break;
+         }
       }
 
       if (config.get("downloaddir") != null) {
@@ -413,6 +450,20 @@ public class VooDooDriver {
       if (config.get("maximizewindows") != null) {
          browser.maximizeBrowserWindows((Boolean)config.get("maximizewindows"));
       }
+      browser.setHeadless((Boolean)config.get("headless"));
+      if (config.get("windowsize") != null) {
+         String s = (String)config.get("windowsize");
+         Matcher m = Pattern.compile("(\\d+)x(\\d+)").matcher(s);
+         if (!m.matches()) {
+            System.out.println("(!)Invalid window size '" + s +
+                               "', expected WIDTHxHEIGHT");
+            System.exit(2);
+         }
+         browser.setWindowSize(new Dimension(Integer.parseInt(m.group(1)),
+                                             Integer.parseInt(m.group(2))));
+      }
+      browser.setSoftReset((Boolean)config.get("softreset"));
+      browser.setWarmStandby((Boolean)config.get("warmbrowser"));
 
       config.put("browser", browser);
    }
@@ -564,21 +615,109 @@ public class VooDooDriver {
       loadBrowser(config);
       loadPlugins(config);
       loadBlocklist(config);
+      config.put("artifactstore",
+                 new ArtifactStore((String)config.get("resultdir")));
 
-      if (config.containsKey("suite")) {
-         RunSuites(config);
-      }
+      if (config.containsKey("grid")) {
+         RunGrid(config, args);
+      } else {
+         if (config.containsKey("suite")) {
+            RunSuites(config);
+         }
 
-      if (config.containsKey("test")) {
-         RunTests(config);
+         if (config.containsKey("test")) {
+            RunTests(config);
+         }
+
+         ((Browser)config.get("browser")).shutdown();
       }
 
+      ArtifactStore artifacts = (ArtifactStore)config.get("artifactstore");
+      System.out.printf("(*)Artifacts saved: %d, duplicates skipped: %d.\n",
+                        artifacts.getStoredCount(),
+                        artifacts.getDeduplicatedCount());
+
       System.out.println("(*)VooDooDriver Finished.");
       closeLog();
       System.exit(0);
    }
 
 
+   /**
+    * Spread the suites and tests across the --grid servers.
+    *
+    * <p>Each suite and test runs in a child VooDooDriver with the same
+    * JVM options and command line, apart from the job itself and the
+    * grid options, writing to this run's result directory.  The
+    * children would overwrite each other's live summary, so
+    * --livereport is not supported and --haltOnFailure has no
+    * effect.</p>
+    *
+    * @param config  VooDooDriver configuration
+    * @param args    the command line
+    */
+
+   private static void RunGrid(VDDHash config, String[] args) {
+      String[] jobOpts = {"--grid=", "--livereport", "--remote=",
+                          "--resultdir=", "--suite=", "--test="};
+      GridScheduler grid = null;
+
+      if ((Boolean)config.get("livereport")) {
+         System.out.println("(W)--livereport is not supported with --grid, " +
+                            "reports will be written by VDDReporter after " +
+                            "the run.");
+      }
+
+      try {
+         grid = new GridScheduler((VDDHash)config.get("grid"));
+      } catch (VDDException e) {
+         System.out.println("(!)" + e.getMessage());
+         System.exit(2);
+      }
+
+      if (config.containsKey("suite")) {
+         @SuppressWarnings("unchecked")
+            ArrayList<String> suites = (ArrayList<String>)config.get("suite");
+         for (String s: suites) {
+            grid.addSuite(s);
+         }
+      }
+      if (config.containsKey("test")) {
+         @SuppressWarnings("unchecked")
+            ArrayList<String> tests = (ArrayList<String>)config.get("test");
+         for (String t: tests) {
+            grid.addTest(t);
+         }
+      }
+
+      ArrayList<String> cmd = new ArrayList<String>();
+      cmd.add(System.getProperty("java.home") + File.separator + "bin" +
+              File.separator + "java");
+      cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+      cmd.add("-cp");
+      cmd.add(System.getProperty("java.class.path"));
+      cmd.add(VooDooDriver.class.getName());
+
+   nextArg:
+      for (String arg: args) {
+         for (String o: jobOpts) {
+            if (arg.startsWith(o)) {
+               continue nextArg;
+            }
+         }
+         cmd.add(arg);
+      }
+      cmd.add("--resultdir=" + config.get("resultdir"));
+
+      int failures = grid.run(cmd);
+      if (failures > 0) {
+         System.out.printf("(!)%d grid jobs failed.\n", failures);
+      }
+
+      ((Browser)config.get("browser")).shutdown();
+   }
+
+
    /**
     * Run the tests specified on the command line with --test.
     *
@@ -612,6 +751,7 @@ public class VooDooDriver {
              (Integer)t.getReporter().getResults().get("result") != 0) {
             System.out.println("(*)Test failed and --haltOnFailure is set. " +
                                "Terminating run...");
+            closeBrowser(browser);
             break;
          }
       }
@@ -619,15 +759,68 @@ public class VooDooDriver {
 
 
    /**
-    * Helper function to log summary data.
+    * Close the browser at the end of a halted run.
+    *
+    * Falls back to killing the browser if it does not close cleanly.
+    *
+    * @param browser  the browser to close
     */
 
-   private static void writeSummary(FileOutputStream in, String msg) {
+   private static void closeBrowser(Browser browser) {
+      if (browser.isClosed()) {
+         return;
+      }
+
       try {
-         in.write(msg.getBytes());
-      } catch (Exception exp) {
-         exp.printStackTrace();
+         browser.close();
+      } catch (Exception e) {
+         System.out.println("(!)Failed to close browser: " + e);
+         browser.forceClose();
+      }
+   }
+
+
+   /**
+    * Get a test's per-event latency histograms.
+    *
+    * @param test  the test just run
+    * @return the test's event timings, or null if it ran no events
+    */
+
+   private static EventTimings getEventTimings(Test test) {
+      EventLoop loop = test.getEventLoop();
+
+      return (loop == null) ? null : loop.getEventTimings();
+   }
+
+
+   /**
+    * Add a finished test to the live report.
+    *
+    * @param live     the live report, or null if not enabled
+    * @param test     the test just run
+    * @param file     the test file
+    * @param runtime  the test's run time
+    */
+
+   private static void liveReportTest(VddLiveReporter live, Test test,
+                                      String file, String runtime) {
+      if (live == null) {
+         return;
+      }
+
+      HashMap<String, String> values = new HashMap<String, String>();
+      TestResults results = test.getReporter().getResults();
+
+      for (String key: results.keySet()) {
+         values.put(key, results.get(key).toString());
       }
+      values.put("result",
+                 ((Integer)results.get("result") != 0) ? "Failed" : "Passed");
+      values.put("testfile", file);
+      values.put("totaltesttime", runtime);
+
+      live.addTest(values, getEventTimings(test));
    }
 
 
@@ -646,12 +839,13 @@ public class VooDooDriver {
       int len = suites.size() -1;
       String report_file_name = (String)config.get("resultdir");
       String hostname = "";
-      FileOutputStream suiteRptFD = null;
+      SuiteReport suiteRpt = null;
       Browser browser = (Browser)config.get("browser");
       Date now = null;
       Date suiteStartTime = null;
       Date suiteStopTime = null;
       Boolean terminateRun = false;
+      VddLiveReporter live = null;
 
       if (suites.size() == 0) {
          return;
@@ -683,16 +877,25 @@ public class VooDooDriver {
       report_file_name = FilenameUtils.separatorsToSystem(report_file_name);
 
       try {
-         suiteRptFD = new FileOutputStream(report_file_name);
+         /* Grid jobs may start in the same millisecond. */
+         File f = new File(report_file_name);
+         for (int n = 1; !f.createNewFile(); n++) {
+            f = new File(report_file_name.replaceAll("\\.xml$",
+                                                     "-" + n + ".xml"));
+         }
+         report_file_name = f.toString();
+         suiteRpt = new SuiteReport(f);
          System.out.printf("(*)Report: %s\n", report_file_name);
       } catch (Exception exp) {
          System.out.printf("(!)Error: %s!\n", exp.getMessage());
          System.exit(5);
       }
 
-      browser.newBrowser();
+      if ((Boolean)config.get("livereport")) {
+         live = new VddLiveReporter(new File((String)config.get("resultdir")));
+      }
 
-      writeSummary(suiteRptFD, "<data>\n");
+      browser.newBrowser();
 
       /* Loop over suites */
       for (int i = 0; i <= len; i++) {
@@ -702,11 +905,6 @@ public class VooDooDriver {
          String suite_base_name = suite.getName();
          int testRanCount = 0;
 
-         writeSummary(suiteRptFD, "\t<suite>\n\n");
-         writeSummary(suiteRptFD,
-                      String.format("\t\t<suitefile>%s</suitefile>\n",
-                                    suite_base_name));
-
          Pattern p = Pattern.compile("\\.xml$", Pattern.CASE_INSENSITIVE);
          Matcher m = p.matcher(suite_base_name);
          suite_base_noext = m.replaceAll("");
@@ -722,10 +920,13 @@ public class VooDooDriver {
             System.err.println("Failed to load " + suite + ": " + e);
             continue;
          }
+
+         suiteRpt.startSuite(suite_base_name);
+         if (live != null) {
+            live.startSuite(suite_base_noext);
+         }
+
          VDDHash vars = null;
-         TestResults test_results_hash = null;
-         ArrayList<TestResults> test_resultsStore =
-            new ArrayList<TestResults>();
 
          /* Loop over tests within each suite. */
          suiteStartTime = new Date();
@@ -751,10 +952,6 @@ public class VooDooDriver {
                if (restartTest != null) {
                   System.out.printf("(*)Executing Restart Test: '%s'\n",
                                     restartTest);
-                  writeSummary(suiteRptFD, "\t\t<test>\n");
-                  writeSummary(suiteRptFD,
-                               String.format("\t\t\t<testfile>%s</testfile>\n",
-                                             restartTest));
                   now = new Date();
                   test_start_time = now;
                   frac = String.format("%1$tN", now);
@@ -763,9 +960,7 @@ public class VooDooDriver {
                   frac = frac.subSequence(0, 3).toString();
                   date_str += String.format(".%s", frac);
 
-                  writeSummary(suiteRptFD,
-                               String.format("\t\t\t<starttime>%s</starttime>\n",
-                                             date_str));
+                  suiteRpt.startTest(restartTest, date_str);
 
                   testobj = new Test(config, new File(restartTest),
                                      suite_base_noext, vars);
@@ -779,47 +974,21 @@ public class VooDooDriver {
                   frac = frac.subSequence(0, 3).toString();
                   date_str += String.format(".%s", frac);
 
-                  writeSummary(suiteRptFD,
-                               String.format("\t\t\t<stoptime>%s</stoptime>\n",
-                                             date_str));
                   String msg = Utils.GetRunTime(test_start_time, now);
-                  writeSummary(suiteRptFD,
-                               String.format("\t\t\t<totaltesttime>%s</totaltesttime>\n", msg));
 
                   if (testobj.getEventLoop() != null) {
                      vars = testobj.getEventLoop().getSodaVars();
                   }
 
-                  test_results_hash = testobj.getReporter().getResults();
-                  test_resultsStore.add(test_results_hash);
-                  for (int res_index = 0;
-                       res_index <= test_results_hash.keySet().size() - 1;
-                       res_index++) {
-                     String key = test_results_hash.keySet().toArray()[res_index].toString();
-                     String value = test_results_hash.get(key).toString();
-
-                     if (key.contains("result")) {
-                        if (Integer.valueOf(value) != 0) {
-                           value = "Failed";
-                        } else {
-                           value = "Passed";
-                        }
-                     }
-                     writeSummary(suiteRptFD,
-                                  String.format("\t\t\t<%s>%s</%s>\n",
-                                                key, value, key));
-                  }
-                  writeSummary(suiteRptFD, "\t\t</test>\n\n");
+                  suiteRpt.endTest(date_str, msg, getEventTimings(testobj),
+                                   testobj.getReporter().getResults());
+                  liveReportTest(live, testobj, restartTest, msg);
                }
 
                testRanCount = 0;
             }
 
-            writeSummary(suiteRptFD, "\t\t<test>\n");
             File current_test = suite_test_list.get(test_index);
-            writeSummary(suiteRptFD,
-                         String.format("\t\t\t<testfile>%s</testfile>\n",
-                                       current_test));
             System.out.printf("(*)Executing Test: '%s'\n", current_test);
             now = new Date();
             test_start_time = now;
@@ -829,9 +998,7 @@ public class VooDooDriver {
             frac = frac.subSequence(0, 3).toString();
             date_str += String.format(".%s", frac);
 
-            writeSummary(suiteRptFD,
-                         String.format("\t\t\t<starttime>%s</starttime>\n",
-                                       date_str));
+            suiteRpt.startTest(current_test.toString(), date_str);
 
             if (browser.isClosed()) {
                System.out.printf("(*)Browser was closed by another suite, creating new browser...\n");
@@ -849,38 +1016,16 @@ public class VooDooDriver {
                                      now);
             frac = frac.subSequence(0, 3).toString();
             date_str += String.format(".%s", frac);
-            writeSummary(suiteRptFD,
-                         String.format("\t\t\t<stoptime>%s</stoptime>\n",
-                                       date_str));
             String msg = Utils.GetRunTime(test_start_time, now);
-            writeSummary(suiteRptFD,
-                         String.format("\t\t\t<totaltesttime>%s</totaltesttime>\n", msg));
 
             if (testobj.getEventLoop() != null) {
                vars = testobj.getEventLoop().getSodaVars();
             }
 
-            test_results_hash = testobj.getReporter().getResults();
-            test_resultsStore.add(test_results_hash);
-            for (int res_index = 0;
-                 res_index <= test_results_hash.keySet().size() - 1;
-                 res_index++) {
-               String key =
-                  test_results_hash.keySet().toArray()[res_index].toString();
-               String value = test_results_hash.get(key).toString();
-
-               if (key.contains("result")) {
-                  if (Integer.valueOf(value) != 0) {
-                     value = "Failed";
-                  } else {
-                     value = "Passed";
-                     testPassed = true;
-                  }
-               }
-               writeSummary(suiteRptFD, String.format("\t\t\t<%s>%s</%s>\n",
-                                                      key, value, key));
-            }
-            writeSummary(suiteRptFD, "\t\t</test>\n\n");
+            TestResults results = testobj.getReporter().getResults();
+            testPassed = ((Integer)results.get("result") == 0);
+            suiteRpt.endTest(date_str, msg, getEventTimings(testobj), results);
+            liveReportTest(live, testobj, current_test.toString(), msg);
 
             if (restartCount > 0) {
                File pF = current_test.getParentFile();
@@ -902,6 +1047,7 @@ public class VooDooDriver {
 
             if (haltOnFailure && testPassed == false) {
                System.out.printf("(*)Test failed and --haltOnFailure is set. Terminating run...\n");
+               closeBrowser(browser);
                terminateRun = true;
                break;
             }
@@ -922,22 +1068,21 @@ public class VooDooDriver {
          startTimeStr += String.format(".%s", frac);
 
 
-         String msg = String.format("\t\t<runtime>%s</runtime>\n",
-                                    Utils.GetRunTime(suiteStartTime,
-                                                     suiteStopTime));
-         writeSummary(suiteRptFD,
-                      String.format("\t\t<starttime>%s</starttime>\n",
-                                    startTimeStr));
-         writeSummary(suiteRptFD,
-                      String.format("\t\t<stoptime>%s</stoptime>\n",
-                                    stopTimeStr));
-         writeSummary(suiteRptFD, msg);
-         writeSummary(suiteRptFD, "\t</suite>\n");
+         suiteRpt.endSuite(startTimeStr, stopTimeStr,
+                           Utils.GetRunTime(suiteStartTime, suiteStopTime));
+
+         if (live != null) {
+            live.finishSuite();
+         }
 
          if (terminateRun) {
             break;
          }
       }
-      writeSummary(suiteRptFD, "</data>\n\n");
+      suiteRpt.close();
+
+      if (live != null) {
+         live.close();
+      }
    }
 }
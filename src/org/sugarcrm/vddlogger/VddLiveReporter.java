@@ -0,0 +1,169 @@
+/*
+Copyright 2011-2012 SugarCRM Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+Please see the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.sugarcrm.vddlogger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.sugarcrm.voodoodriver.EventTimings;
+
+/**
+ * HTML reports written while a suite run is in progress.
+ *
+ * <p>VooDooDriver reports each test here as it finishes when
+ * --livereport is given.  The test's log is converted to HTML, a row
+ * is appended to its suite report and summary.html is rewritten with
+ * the totals so far, so a long run can be followed in a browser.
+ * Each log is converted once, when its test finishes, and the summary
+ * holds only a row per suite, so the cost per test stays small
+ * however long the run.</p>
+ *
+ * <p>issues.html is not written.  Running VddLogConverter on the
+ * result directory afterwards produces the usual reports.</p>
+ *
+ * <p>A failure here stops live reporting but never the test run.</p>
+ */
+public class VddLiveReporter {
+
+   /**
+    * Seconds between reloads of the summary page during the run.
+    */
+   private static final int REFRESH = 30;
+
+   private File dir;
+   private ArrayList<VddSuiteSummary> suites = new ArrayList<VddSuiteSummary>();
+   private VddSuiteSummary suite = null;
+   private VddSuiteReporter suiteReporter = null;
+   private boolean failed = false;
+
+   /**
+    * Create a live reporter.
+    *
+    * @param dir  the run's result directory
+    */
+   public VddLiveReporter(File dir) {
+      this.dir = dir;
+   }
+
+   /**
+    * Start reporting a suite.
+    *
+    * @param suiteName  suite name, without the .xml extension
+    */
+   public void startSuite(String suiteName) {
+      if (this.failed) {
+         return;
+      }
+
+      try {
+         finishSuite();
+
+         this.suite = new VddSuiteSummary();
+         this.suite.suiteName = suiteName;
+         this.suites.add(this.suite);
+
+         this.suiteReporter =
+            new VddSuiteReporter(suiteName, this.dir.toString(),
+                                 new ArrayList<HashMap<String, String>>());
+         this.suiteReporter.startReport();
+         writeSummary(REFRESH);
+      } catch (RuntimeException e) {
+         fail(e);
+      }
+   }
+
+   /**
+    * Report a test that has finished.
+    *
+    * @param values   the test's results, keyed by suite file element name
+    * @param timings  the test's event timings, or null
+    */
+   public void addTest(Map<String, String> values, EventTimings timings) {
+      if (this.failed || this.suite == null) {
+         return;
+      }
+
+      try {
+         this.suite.addTest(values, timings);
+
+         if (!Boolean.valueOf(values.get("isrestart")) &&
+             values.get("testlog") != null) {
+            this.suiteReporter.addLog(new File(values.get("testlog")));
+         }
+
+         writeSummary(REFRESH);
+      } catch (RuntimeException e) {
+         fail(e);
+      }
+   }
+
+   /**
+    * Finish reporting the current suite.
+    */
+   public void finishSuite() {
+      if (this.failed || this.suiteReporter == null) {
+         return;
+      }
+
+      try {
+         this.suiteReporter.close();
+      } catch (RuntimeException e) {
+         fail(e);
+      }
+
+      this.suiteReporter = null;
+      this.suite = null;
+   }
+
+   /**
+    * Finish the live report at the end of the run.
+    *
+    * The final summary does not reload itself.
+    */
+   public void close() {
+      finishSuite();
+
+      if (this.failed) {
+         return;
+      }
+
+      try {
+         writeSummary(0);
+      } catch (RuntimeException e) {
+         fail(e);
+      }
+   }
+
+   /**
+    * Rewrite summary.html.
+    */
+   private void writeSummary(int refresh) {
+      VddSummaryReporter summary =
+         new VddSummaryReporter(new ArrayList<File>(), this.dir, 1);
+      summary.generateLiveReport(this.suites, refresh);
+   }
+
+   /**
+    * Give up on live reporting.
+    */
+   private void fail(RuntimeException e) {
+      System.out.println("(W)Live report failed, no longer updating it: " + e);
+      e.printStackTrace();
+      this.failed = true;
+   }
+}
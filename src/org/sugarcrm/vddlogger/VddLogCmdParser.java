@@ -13,6 +13,12 @@ public class VddLogCmdParser {
             this.opts.put("suitedir", args[i].replace("--suitedir=", ""));
          } else if (args[i].startsWith("--suitefile")) {
             this.opts.put("suitefile", args[i].replace("--suitefile=", ""));
+         } else if (args[i].startsWith("--jobs")) {
+            this.opts.put("jobs", args[i].replace("--jobs=", ""));
+         } else if (args[i].startsWith("--history")) {
+            this.opts.put("history", args[i].replace("--history=", ""));
+         } else if (args[i].equals("--incremental")) {
+            this.opts.put("incremental", "true");
          } else if (args[i].equals("--help")) {
             this.opts.put("help", "true");
          }
@@ -18,9 +18,25 @@ package org.sugarcrm.vddlogger;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class VddLogConverter {
 
+   /**
+    * Number of worker threads used to generate reports.
+    */
+   private static int jobs = Runtime.getRuntime().availableProcessors();
+
+   /**
+    * Whether to regenerate only the reports of changed logs.
+    */
+   private static boolean incremental = false;
+
+   /**
+    * Timing history to update, or null.
+    */
+   private static File history = null;
+
    /**
     * @param args
     */
@@ -36,6 +52,24 @@ public class VddLogConverter {
          System.exit(0);
       }
 
+      if (opts.containsKey("jobs")) {
+         try {
+            jobs = Integer.parseInt(opts.get("jobs"));
+         } catch (NumberFormatException e) {
+            System.out.println("(!)Invalid --jobs value '" + opts.get("jobs") + "'");
+            System.exit(2);
+         }
+         if (jobs < 1) {
+            jobs = 1;
+         }
+      }
+
+      incremental = opts.containsKey("incremental");
+
+      if (opts.containsKey("history")) {
+         history = new File(opts.get("history"));
+      }
+
       if (opts.containsKey("suitefile")) {
          File suitefile = new File((String)opts.get("suitefile"));
 
@@ -77,6 +111,7 @@ public class VddLogConverter {
       String[] files = null;
 
       files = dir.list();
+      Arrays.sort(files);
 
       for (int i = 0; i <= files.length -1; i++) {
          if (!files[i].toLowerCase().endsWith(".xml")) {
@@ -89,8 +124,12 @@ public class VddLogConverter {
       }
 
       System.out.printf("(*)Generating Summary file...\n");
-      VddSummaryReporter summary = new VddSummaryReporter(xmlsuitefiles, dir);
+      VddSummaryReporter summary = new VddSummaryReporter(xmlsuitefiles, dir,
+                                                          jobs, incremental);
       summary.generateReport();
+      if (history != null) {
+         summary.generateTrendReport(history);
+      }
    }
 
 
@@ -107,17 +146,39 @@ public class VddLogConverter {
       System.out.printf("(*)Generating Summary file...\n");
       VddSummaryReporter summary =
          new VddSummaryReporter(xmlsuitefiles,
-                                file.getAbsoluteFile().getParentFile());
+                                file.getAbsoluteFile().getParentFile(),
+                                jobs, incremental);
       summary.generateReport();
+      if (history != null) {
+         summary.generateTrendReport(history);
+      }
    }
 
 
    /**
-    *
+    * Print VddLogConverter's help message.
     */
 
    public static void PrintHelp() {
-      String msg = "This is a help message!";
+      String msg =
+         "Usage: java -jar VDDReporter.jar [options]\n" +
+         "\n" +
+         "Options:\n" +
+         "   --suitedir=DIR    Generate reports for every suite file in DIR.\n" +
+         "   --suitefile=FILE  Generate reports for a single suite file.\n" +
+         "   --jobs=N          Convert test logs on N threads.  Defaults to\n" +
+         "                     the number of processors.\n" +
+         "   --incremental     Only regenerate the reports of test logs, and\n" +
+         "                     reparse the suite files, that changed since\n" +
+         "                     the last run, as recorded in\n" +
+         "                     " + VddReportManifest.FILENAME + " in the result directory.\n" +
+         "   --history=FILE    Add this run's test durations to the timing\n" +
+         "                     history in FILE, creating it if necessary, and\n" +
+         "                     write trends.html listing the tests that became\n" +
+         "                     slower.\n" +
+         "   --help            Print this message.\n" +
+         "\n" +
+         "Either --suitedir or --suitefile is required.";
       System.out.printf("%s\n", msg);
    }
 
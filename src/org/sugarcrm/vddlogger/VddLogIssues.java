@@ -1,78 +1,182 @@
 package org.sugarcrm.vddlogger;
 
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 
+/**
+ * Errors, warnings and exceptions found in test logs, with counts.
+ *
+ * <p>Issues are normalized before they are counted: URLs, GUIDs, long
+ * hex strings and numbers are masked, so messages that differ only in
+ * record IDs, timestamps and the like are counted together.</p>
+ *
+ * <p>Only the {@link #CAPACITY} most frequent issues of each kind are
+ * kept, using the Space-Saving algorithm.  When a new issue arrives
+ * and the table is full, the least frequent issue is replaced and the
+ * new one inherits its count.  Any issue more frequent than
+ * 1/CAPACITY of the total is guaranteed to be kept, and a count is
+ * never too low, though it may be too high by at most the count it
+ * inherited.  This keeps memory bounded however many logs are
+ * merged.</p>
+ */
 public class VddLogIssues {
 
-   private HashMap<String, Integer> errors = null;
-   private HashMap<String, Integer> wanrings = null;
-   private HashMap<String, Integer> exceptions = null;
+   /**
+    * Maximum number of distinct issues of each kind.
+    */
+   public static final int CAPACITY = 1000;
+
+   private static final Pattern URL_PATTERN =
+      Pattern.compile("\\b[a-zA-Z][a-zA-Z0-9+.-]*://\\S+");
+   private static final Pattern GUID_PATTERN =
+      Pattern.compile("\\b[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-" +
+                      "[0-9a-fA-F]{4}-[0-9a-fA-F]{12}\\b");
+   private static final Pattern HEX_PATTERN =
+      Pattern.compile("\\b(?=[0-9a-fA-F]*\\d)[0-9a-fA-F]{16,}\\b");
+   private static final Pattern NUMBER_PATTERN = Pattern.compile("\\d+");
+
+   private IssueCounts errors = null;
+   private IssueCounts warnings = null;
+   private IssueCounts exceptions = null;
+
+   /**
+    * Counts of one kind of issue.
+    */
+   private static class IssueCounts {
+      private HashMap<String, Integer> counts = new HashMap<String, Integer>();
+      private boolean truncated = false;
+
+      /**
+       * Issues that had the smallest count when last looked for.
+       * Counts only grow, so an issue still at minCount is still a
+       * least frequent one.
+       */
+      private ArrayDeque<String> minIssues = new ArrayDeque<String>();
+      private int minCount = 0;
+
+      /**
+       * Count an issue, replacing the least frequent issue if full.
+       */
+      void add(String issue, int count) {
+         Integer c = this.counts.get(issue);
+
+         if (c != null) {
+            this.counts.put(issue, c + count);
+            return;
+         }
+
+         if (this.counts.size() >= CAPACITY) {
+            String min = removeMin();
+            count += this.counts.remove(min);
+            this.truncated = true;
+         }
+
+         this.counts.put(issue, count);
+      }
+
+      /**
+       * Find a least frequent issue.
+       */
+      private String removeMin() {
+         while (true) {
+            while (!this.minIssues.isEmpty()) {
+               String issue = this.minIssues.poll();
+               Integer c = this.counts.get(issue);
+               if (c != null && c == this.minCount) {
+                  return issue;
+               }
+            }
+
+            this.minCount = Integer.MAX_VALUE;
+            for (int n: this.counts.values()) {
+               this.minCount = Math.min(this.minCount, n);
+            }
+            for (Map.Entry<String, Integer> e: this.counts.entrySet()) {
+               if (e.getValue() == this.minCount) {
+                  this.minIssues.add(e.getKey());
+               }
+            }
+         }
+      }
+
+      void addAll(IssueCounts other) {
+         for (Map.Entry<String, Integer> e: other.counts.entrySet()) {
+            add(e.getKey(), e.getValue());
+         }
+         this.truncated |= other.truncated;
+      }
+   }
 
    public VddLogIssues () {
 
-      this.errors = new HashMap<String, Integer>();
-      this.wanrings = new HashMap<String, Integer>();
-      this.exceptions = new HashMap<String, Integer>();
+      this.errors = new IssueCounts();
+      this.warnings = new IssueCounts();
+      this.exceptions = new IssueCounts();
 
    }
 
    public HashMap<String, HashMap<String, Integer>> getData() {
       HashMap<String, HashMap<String, Integer>> data = new HashMap<String, HashMap<String,Integer>>();
 
-      data.put("errors", this.errors);
-      data.put("warnings", this.wanrings);
-      data.put("exceptions", this.exceptions);
+      data.put("errors", new HashMap<String, Integer>(this.errors.counts));
+      data.put("warnings", new HashMap<String, Integer>(this.warnings.counts));
+      data.put("exceptions", new HashMap<String, Integer>(this.exceptions.counts));
 
       return data;
    }
 
+   /**
+    * Whether less frequent issues have been dropped.
+    *
+    * @return true if any kind of issue has exceeded {@link #CAPACITY}
+    */
+   public boolean isTruncated() {
+      return (this.errors.truncated || this.warnings.truncated ||
+              this.exceptions.truncated);
+   }
+
+   /**
+    * Mask the variable parts of an issue.
+    *
+    * @param str  the issue as logged
+    * @return the issue with URLs, GUIDs, hex strings and numbers masked
+    */
+   public static String normalize(String str) {
+      str = URL_PATTERN.matcher(str).replaceAll("<url>");
+      str = GUID_PATTERN.matcher(str).replaceAll("<guid>");
+      str = HEX_PATTERN.matcher(str).replaceAll("<hex>");
+      return NUMBER_PATTERN.matcher(str).replaceAll("#");
+   }
+
    public void addException(String str) {
-      if (this.exceptions.containsKey(str)) {
-         Integer tmp = this.exceptions.get(str);
-         tmp += 1;
-         this.exceptions.put(str, tmp);
-      } else {
-         this.exceptions.put(str, 1);
-      }
+      addException(str, 1);
+   }
+
+   public void addException(String str, int count) {
+      this.exceptions.add(normalize(str), count);
    }
 
    public void addWarning(String str) {
-      if (this.wanrings.containsKey(str)) {
-         Integer tmp = this.wanrings.get(str);
-         tmp += 1;
-         this.wanrings.put(str, tmp);
-      } else {
-         this.wanrings.put(str, 1);
-      }
+      addWarning(str, 1);
    }
 
-   public void addError(String str) {
-      if (this.errors.containsKey(str)) {
-         Integer tmp = this.errors.get(str);
-         tmp += 1;
-         this.errors.put(str, tmp);
-      } else {
-         this.errors.put(str, 1);
-      }
+   public void addWarning(String str, int count) {
+      this.warnings.add(normalize(str), count);
    }
 
-   public void appendIssues(VddLogIssues issues) {
-      addIssue(issues.errors, this.errors);
-      addIssue(issues.wanrings, this.wanrings);
-      addIssue(issues.exceptions, this.exceptions);
+   public void addError(String str) {
+      addError(str, 1);
    }
 
-   private void addIssue(HashMap<String, Integer> src, HashMap<String, Integer> dst) {
-      String[] keys = src.keySet().toArray(new String[0]);
+   public void addError(String str, int count) {
+      this.errors.add(normalize(str), count);
+   }
 
-      for (int i = 0; i <= keys.length -1; i++) {
-         if (!dst.containsKey(keys[i])) {
-            dst.put(keys[i], src.get(keys[i]));
-         } else {
-            int srcCount = src.get(keys[i]);
-            int dstCount = dst.get(keys[i]);
-            dst.put(keys[i], (srcCount + dstCount));
-         }
-      }
+   public void appendIssues(VddLogIssues issues) {
+      this.errors.addAll(issues.errors);
+      this.warnings.addAll(issues.warnings);
+      this.exceptions.addAll(issues.exceptions);
    }
 }
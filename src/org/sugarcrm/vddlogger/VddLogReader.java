@@ -0,0 +1,241 @@
+/*
+Copyright 2011-2012 SugarCRM Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+Please see the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.sugarcrm.vddlogger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Line reader for test logs.
+ *
+ * <p>The log is read through a FileChannel into one large direct
+ * buffer and decoded as UTF-8, which is how VooDooDriver writes it.
+ * Bytes that are not valid UTF-8 are replaced rather than ending the
+ * conversion.  Each line is returned as a String made directly from
+ * the decoded characters; only a line that straddles two buffer
+ * fills is assembled piecewise.  Memory use is therefore bounded by
+ * the buffers and the longest line, however large the log.</p>
+ *
+ * <p>Lines end with "\n", "\r" or "\r\n", as with
+ * BufferedReader.readLine().</p>
+ *
+ * <p>The SHA-1 hash of the log is computed from the same buffer
+ * fills, so that the report manifest does not have to read the log a
+ * second time.</p>
+ */
+class VddLogReader {
+
+   private static final int BYTE_BUFFER_SIZE = 1024 * 1024;
+   private static final int CHAR_BUFFER_SIZE = 256 * 1024;
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private FileInputStream stream;
+   private FileChannel channel;
+   private ByteBuffer bytes = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+   private CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+   private CharsetDecoder decoder;
+   private boolean endOfBytes = false;
+   private boolean endOfChars = false;
+   private boolean skipLF = false;
+   private MessageDigest digest;
+   private long length = 0;
+   private String hash = null;
+
+
+   /**
+    * Open a log for reading.
+    *
+    * @param file  the log file
+    * @throws IOException if the file cannot be opened
+    */
+   public VddLogReader(File file) throws IOException {
+      this.stream = new FileInputStream(file);
+      this.channel = this.stream.getChannel();
+      this.decoder = UTF8.newDecoder()
+         .onMalformedInput(CodingErrorAction.REPLACE)
+         .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.bytes.flip();
+      this.chars.flip();
+
+      try {
+         this.digest = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+         this.digest = null;
+      }
+   }
+
+
+   /**
+    * Read the next line.
+    *
+    * @return the line without its line terminator, or null at the end
+    *         of the log
+    * @throws IOException if the log cannot be read
+    */
+   public String readLine() throws IOException {
+      StringBuilder partial = null;
+
+      while (true) {
+         if (!this.chars.hasRemaining() && !fill()) {
+            return (partial == null) ? null : partial.toString();
+         }
+
+         char[] a = this.chars.array();
+         int start = this.chars.position();
+         int end = this.chars.limit();
+
+         if (this.skipLF) {
+            this.skipLF = false;
+            if (a[start] == '\n') {
+               this.chars.position(start + 1);
+               continue;
+            }
+         }
+
+         for (int k = start; k < end; k++) {
+            char c = a[k];
+
+            if (c == '\n' || c == '\r') {
+               this.chars.position(k + 1);
+               this.skipLF = (c == '\r');
+
+               if (partial == null) {
+                  return new String(a, start, k - start);
+               }
+               partial.append(a, start, k - start);
+               return partial.toString();
+            }
+         }
+
+         if (partial == null) {
+            partial = new StringBuilder(2 * (end - start));
+         }
+         partial.append(a, start, end - start);
+         this.chars.position(end);
+      }
+   }
+
+
+   /**
+    * Get the SHA-1 hash of the log, in hex.
+    *
+    * @return the hash, or null if the log has not been read to the
+    *         end
+    */
+   public String getHash() {
+      return this.hash;
+   }
+
+
+   /**
+    * Get the number of bytes read from the log.
+    *
+    * @return the log's size, once it has been read to the end
+    */
+   public long getLength() {
+      return this.length;
+   }
+
+
+   /**
+    * Close the log.
+    */
+   public void close() throws IOException {
+      this.channel.close();
+      this.stream.close();
+   }
+
+
+   /**
+    * Decode more of the log.
+    *
+    * @return false at the end of the log
+    */
+   private boolean fill() throws IOException {
+      this.chars.clear();
+
+      while (this.chars.position() == 0 && !this.endOfChars) {
+         if (!this.endOfBytes) {
+            this.bytes.compact();
+            int from = this.bytes.position();
+            if (this.channel.read(this.bytes) < 0) {
+               this.endOfBytes = true;
+               this.hash = digestHex();
+            } else {
+               hashRead(from);
+            }
+            this.bytes.flip();
+         }
+
+         CoderResult r = this.decoder.decode(this.bytes, this.chars,
+                                             this.endOfBytes);
+         if (this.endOfBytes && r.isUnderflow()) {
+            this.decoder.flush(this.chars);
+            this.endOfChars = true;
+         }
+      }
+
+      this.chars.flip();
+
+      return this.chars.hasRemaining();
+   }
+
+
+   /**
+    * Add the bytes just read, from <code>from</code> to the buffer's
+    * position, to the log's hash.
+    */
+   private void hashRead(int from) {
+      ByteBuffer read = this.bytes.duplicate();
+
+      read.limit(read.position());
+      read.position(from);
+      this.length += read.remaining();
+      if (this.digest != null) {
+         this.digest.update(read);
+      }
+   }
+
+
+   /**
+    * Finish the log's hash.
+    *
+    * @return the hash in hex, or null if SHA-1 is not available
+    */
+   private String digestHex() {
+      if (this.digest == null) {
+         return null;
+      }
+
+      StringBuilder sb = new StringBuilder(40);
+      for (byte b: this.digest.digest()) {
+         sb.append(String.format("%02x", b & 0xff));
+      }
+
+      return sb.toString();
+   }
+}
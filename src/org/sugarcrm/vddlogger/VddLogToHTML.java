@@ -23,16 +23,52 @@ import java.util.regex.Pattern;
 public class VddLogToHTML {
 
    private final String HTML_HEADER_RESOURCE = "reportlogheader.txt";
+   private static final Pattern ARTIFACT_PATTERN =
+      Pattern.compile("(artifacts/[0-9a-f]{2}/[0-9a-f]+\\.\\w+(\\.gz)?)$");
+   private static final Pattern HTML_SAVED_PATTERN =
+      Pattern.compile("html\\ssaved:\\s(.*)", Pattern.CASE_INSENSITIVE);
+   private static final Pattern SAVED_HTML_PATTERN =
+      Pattern.compile("(saved-html.*)");
+   private static final Pattern JS_ERROR_PATTERN =
+      Pattern.compile("css error|javascript error", Pattern.CASE_INSENSITIVE);
+   private static final Pattern REPLACING_STRING_PATTERN =
+      Pattern.compile("replacing string", Pattern.CASE_INSENSITIVE);
+   private static final Pattern ELEMENT_PATTERN =
+      Pattern.compile("element", Pattern.CASE_INSENSITIVE);
+   private static final Pattern SCREENSHOT_TAKEN_PATTERN =
+      Pattern.compile("screenshot taken", Pattern.CASE_INSENSITIVE);
+   private static final Pattern MAJOR_EXCEPTION_PATTERN =
+      Pattern.compile("major exception", Pattern.CASE_INSENSITIVE);
+   private static final Pattern EXCEPTION_MESSAGE_PATTERN =
+      Pattern.compile("exception message", Pattern.CASE_INSENSITIVE);
+   private static final Pattern FIELD_SEPARATOR = Pattern.compile("--");
+   private static final Pattern VALUE_SEPARATOR = Pattern.compile("::");
+
+   /**
+    * Kinds of log line, each with its own formatting.
+    */
+   private enum LineType {
+      ASSERT_PASSED, ASSERT_FAILED, MODULE, CLICKING_ELEMENT, TEST_RESULTS,
+      EXCEPTION_BACKTRACE, MAJOR_EXCEPTION, HTML_SAVED, SCREENSHOT_SAVED,
+      EVENT_DUMP, JS_ERROR, REPLACE_STRING, FINDING_ELEMENT, SCREENSHOT,
+      DEFAULT
+   }
+
    private File outfile;
 
-   private PrintStream out;
-   private BufferedReader in;
+   private PrintWriter out;
+   private VddLogReader in;
 
    private int backTraceID;
    private int eventDumpID;
 
    private VddLogIssues issues = null;
 
+   /**
+    * Last line of the log, which holds the test's results.
+    */
+   private String lastLine = "";
+
 
    /**
     * Create a VddLogToHTML object.
@@ -58,9 +94,9 @@ public class VddLogToHTML {
       this.issues = new VddLogIssues();
 
       try {
-         in = new BufferedReader(new FileReader(infile));
-      } catch (FileNotFoundException e) {
-         throw new VDDLogException("Failed to find input file " + infile, e);
+         in = new VddLogReader(infile);
+      } catch (IOException e) {
+         throw new VDDLogException("Failed to open input file " + infile, e);
       }
 
       /*
@@ -73,14 +109,16 @@ public class VddLogToHTML {
       if (!fn.endsWith(".log")) {
          throw new VDDLogException(inputFilename + " is not a VDD log file");
       }
-      outfile = new File(infile.getParent() + File.separator +
-                         "Report-" + fn.replaceAll(".log$", ".html"));
+      outfile = new File(infile.getParent() + File.separator + "Report-" +
+                         fn.substring(0, fn.length() - 4) + ".html");
 
       System.out.println("(*)Generating report: " + outfile);
 
       try {
-         out = new PrintStream(new FileOutputStream(outfile));
-      } catch (FileNotFoundException e) {
+         out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outfile),
+                                                                         "UTF-8"),
+                                                  64 * 1024));
+      } catch (IOException e) {
          throw new VDDLogException("Unable to write to " + outfile, e);
       }
    }
@@ -94,66 +132,193 @@ public class VddLogToHTML {
       return this.issues;
    }
 
+   /**
+    * Get the last non-empty line of the log.
+    *
+    * This is the "Soda Test Report" line for a completed test.  It
+    * is only available after {@link #generateReport} has run.
+    *
+    * @return the last line, or "" if the log was empty
+    */
+   public String getLastLine() {
+      return this.lastLine;
+   }
+
+   /**
+    * Get the SHA-1 hash of the log, computed while it was converted.
+    *
+    * @return the hash in hex, or null if the log was not read to the
+    *         end
+    */
+   public String getLogHash() {
+      return in.getHash();
+   }
+
+   /**
+    * Get the size of the log, as read while it was converted.
+    *
+    * @return the number of bytes read
+    */
+   public long getLogSize() {
+      return in.getLength();
+   }
+
+   /**
+    * Classify a line from the raw .log file.
+    *
+    * <p>Checks are made in the same order of precedence as always,
+    * but the common message prefixes are dispatched on their first
+    * character, so most lines are classified after one or two
+    * comparisons.  Case insensitive matches use precompiled
+    * patterns.</p>
+    *
+    * @param msgType  the character in the line's "(X)" marker
+    * @param message  the text following the marker
+    * @return the kind of line
+    */
+   private static LineType classifyLine(char msgType, String message) {
+      if (message.contains("Assert Passed")) {
+         return LineType.ASSERT_PASSED;
+      } else if (message.contains("Assert Failed")) {
+         return LineType.ASSERT_FAILED;
+      }
+
+      if (message.length() > 0) {
+         switch (message.charAt(0)) {
+            case 'T':
+               if (message.startsWith("Test")) {
+                  return LineType.MODULE;
+               }
+               break;
+            case 'L':
+               if (message.startsWith("Lib")) {
+                  return LineType.MODULE;
+               } else if (message.startsWith("Looking for element:")) {
+                  return LineType.CLICKING_ELEMENT;
+               }
+               break;
+            case 'M':
+               if (message.startsWith("Module")) {
+                  return LineType.MODULE;
+               } else if (message.startsWith("Major Exception")) {
+                  return LineType.MAJOR_EXCEPTION;
+               }
+               break;
+            case 'C':
+               if (message.startsWith("Clicking Link")) {
+                  return LineType.CLICKING_ELEMENT;
+               }
+               break;
+            case 'S':
+               if (message.startsWith("Setting Value") ||
+                   message.startsWith("Setting Select") ||
+                   message.startsWith("Setting SODA")) {
+                  return LineType.CLICKING_ELEMENT;
+               } else if (message.startsWith("Soda Test Report")) {
+                  return LineType.TEST_RESULTS;
+               }
+               break;
+            case '-':
+               if (message.startsWith("--Exception Backtrace")) {
+                  return LineType.EXCEPTION_BACKTRACE;
+               }
+               break;
+         }
+      }
+
+      if (message.contains("HTML Saved:")) {
+         return LineType.HTML_SAVED;
+      } else if (message.startsWith("Screenshot file:")) {
+         return LineType.SCREENSHOT_SAVED;
+      } else if (msgType == 'E') {
+         return LineType.EVENT_DUMP;
+      } else if (JS_ERROR_PATTERN.matcher(message).find()) {
+         return LineType.JS_ERROR;
+      } else if (REPLACING_STRING_PATTERN.matcher(message).find()) {
+         return LineType.REPLACE_STRING;
+      } else if (message.startsWith("Trying to find")) {
+         return LineType.FINDING_ELEMENT;
+      } else if (ELEMENT_PATTERN.matcher(message).lookingAt()) {
+         if (SCREENSHOT_TAKEN_PATTERN.matcher(message).find()) {
+            return LineType.SCREENSHOT;
+         }
+         return LineType.CLICKING_ELEMENT;
+      }
+
+      return LineType.DEFAULT;
+   }
+
    /**
     * Generates a new html table row from a raw .log file line
     *
     * @param line - A line from the raw .log file
-    * @return A string of html that is a table row
+    * @param htmlRow - buffer to append the html table row to
     *
+    * rowData:
     * index 0 = date
     * index 1 = message type
     * index 2 = message
     */
-   private String generateTableRow(String line){
-      String htmlRow = "";
-      String[] rowData = new String[3];
+   private void generateTableRow(String line, StringBuilder htmlRow) {
+      String[] rowData;
       String trStyle = "tr_normal";
+
+      if (line.length() == 0) {
+         return;
+      }
+
       char msgType = line.charAt(line.indexOf("(")+1);
       String message = line.substring(line.indexOf(")")+1, line.length());
 
-      /**
-       * case switches for different message types
-       */
-
-      //assertion passed
-      if (message.contains("Assert Passed")) {
-         rowData = formatAssertionPassed(line, message);
-         trStyle = "tr_assert_passed";
-      } else if (message.contains("Assert Failed")) {
-         rowData = formatAssertionFailed(line, message);
-         trStyle = "tr_error";
-      } else if (message.startsWith("Test") || message.startsWith("Lib")|| message.startsWith("Module")) {
-         rowData = formatModuleLine(line, message);
-         trStyle = "tr_module";
-      } else if (message.startsWith("Clicking Link")) {
-         rowData = formatClickingElement(line, message);
-      } else if (message.startsWith("Setting Value") || message.startsWith("Setting Select") || message.startsWith("Setting SODA")) {
-         rowData = formatClickingElement(line, message);
-      } else if (message.startsWith("Looking for element:")) {
-         rowData = formatClickingElement(line, message);
-      } else if (message.startsWith("Soda Test Report")){
-         rowData = formatTestResults(line,message);
-      } else if (message.startsWith("--Exception Backtrace")){
-         rowData = formatExceptionBT(line,message);
-      } else if (message.startsWith("Major Exception")){
-         rowData = formatMajorException(line, message);
-      } else if (message.contains("HTML Saved:")){
-         rowData = this.formatHTMLSavedResults(line, message, msgType);
-      } else if (msgType == 'E'){
-         rowData = formatEventDump(line, message);
-      } else if (message.contains("(?i)css error") || message.contains("(?i)javascript error")){
-         rowData = formatJSError(line, message);
-      } else if (message.contains("(?i)replacing string")){
-         rowData = formatReplaceString(line, message);
-      } else if (message.startsWith("Trying to find")){
-         rowData = formatFindingElement(line, message);
-      } else if (message.startsWith("(?i)element")){
-         rowData = formatClickingElement(line, message);
-         if (message.contains("(?i)screenshot taken")){
+      switch (classifyLine(msgType, message)) {
+         case ASSERT_PASSED:
+            rowData = formatAssertionPassed(line, message);
+            trStyle = "tr_assert_passed";
+            break;
+         case ASSERT_FAILED:
+            rowData = formatAssertionFailed(line, message);
+            trStyle = "tr_error";
+            break;
+         case MODULE:
+            rowData = formatModuleLine(line, message);
+            trStyle = "tr_module";
+            break;
+         case CLICKING_ELEMENT:
+            rowData = formatClickingElement(line, message);
+            break;
+         case TEST_RESULTS:
+            rowData = formatTestResults(line, message);
+            break;
+         case EXCEPTION_BACKTRACE:
+            rowData = formatExceptionBT(line, message);
+            break;
+         case MAJOR_EXCEPTION:
+            rowData = formatMajorException(line, message);
+            break;
+         case HTML_SAVED:
+            rowData = formatHTMLSavedResults(line, message, msgType);
+            break;
+         case SCREENSHOT_SAVED:
+            rowData = formatScreenshotSaved(line, message);
+            break;
+         case EVENT_DUMP:
+            rowData = formatEventDump(line, message);
+            break;
+         case JS_ERROR:
+            rowData = formatJSError(line, message);
+            break;
+         case REPLACE_STRING:
+            rowData = formatReplaceString(line, message);
+            break;
+         case FINDING_ELEMENT:
+            rowData = formatFindingElement(line, message);
+            break;
+         case SCREENSHOT:
             rowData = formatScreenShot(line, message);
-         }
-      } else{
-         rowData = formatDefaultLine(line, message);
+            break;
+         default:
+            rowData = formatDefaultLine(line, message);
+            break;
       }
 
       /**
@@ -161,54 +326,66 @@ public class VddLogToHTML {
        */
       if (rowData[0].isEmpty() && rowData[2].isEmpty()){
             System.out.printf("Empty...\n");
-            return "";
+            return;
       }
 
       /**
        * special message types
        */
-      if (msgType == '!'){
-         rowData[1] = "Failure";
-         trStyle = "tr_error";
-      }
-      else if (msgType == 'W'){
-         rowData[1] = "Warning";
-         trStyle = "tr_warning";
-      }
-      else if (msgType == 'M'){
-         rowData[1] = "Un/Load";
-         trStyle = "tr_module";
+      switch (msgType) {
+         case '!':
+            rowData[1] = "Failure";
+            trStyle = "tr_error";
+            break;
+         case 'W':
+            rowData[1] = "Warning";
+            trStyle = "tr_warning";
+            break;
+         case 'M':
+            rowData[1] = "Un/Load";
+            trStyle = "tr_module";
+            break;
       }
 
-      htmlRow = "<tr class=\""+ trStyle +"\" "+
-               "onMouseOver=\"this.className='highlight'\" " +
-               "onMouseOut=\"this.className='"+ trStyle +"'\">\n";
-      htmlRow += "\t<td class=\"td_date\">" + rowData[0] + "</td>\n";
-      htmlRow += "\t<td class=\"td_msgtype\">" + rowData[1] + "</td>\n";
-      htmlRow += "\t<td>" + rowData[2] + "</td>\n</tr>\n";
-
-      return htmlRow;
+      htmlRow.append("<tr class=\"").append(trStyle).append("\" ")
+         .append("onMouseOver=\"this.className='highlight'\" ")
+         .append("onMouseOut=\"this.className='").append(trStyle).append("'\">\n")
+         .append("\t<td class=\"td_date\">").append(rowData[0]).append("</td>\n")
+         .append("\t<td class=\"td_msgtype\">").append(rowData[1]).append("</td>\n")
+         .append("\t<td>").append(rowData[2]).append("</td>\n</tr>\n");
    }
 
+   /**
+    * Record errors, exceptions and warnings from a raw .log file line.
+    *
+    * @param line - A line from the raw .log file
+    */
    private void processIssues(String line) {
-      if (line.contains("(*")) {
-         return;
+      int end = line.indexOf("]");
+
+      /* Strip the timestamp. */
+      if (line.startsWith("[") && end > 0) {
+         line = line.substring(end + 1);
       }
 
-      line = line.replaceFirst("\\[.*\\]", "");
+      if (line.length() < 3 || line.charAt(0) != '(' || line.charAt(2) != ')') {
+         return;
+      }
 
-      if (line.startsWith("(!")) {
-         line = line.replaceFirst("\\(\\!\\)", "");
-         if (line.startsWith("--Exception")) {
-            return;
-         } else if (line.startsWith("Exception")) {
-            this.issues.addException(line);
-         } else {
-            this.issues.addError(line);
-         }
-      } else if (line.startsWith("(W")) {
-         line = line.replaceFirst("\\(W\\)", "");
-         this.issues.addWarning(line);
+      switch (line.charAt(1)) {
+         case '!':
+            line = line.substring(3);
+            if (line.startsWith("--Exception")) {
+               return;
+            } else if (line.startsWith("Exception")) {
+               this.issues.addException(line);
+            } else {
+               this.issues.addError(line);
+            }
+            break;
+         case 'W':
+            this.issues.addWarning(line.substring(3));
+            break;
       }
    }
 
@@ -219,6 +396,7 @@ public class VddLogToHTML {
 
    public void generateReport(){
       String strLine = "";
+      StringBuilder row = new StringBuilder(1024);
 
       generateHtmlHeader();
 
@@ -228,8 +406,14 @@ public class VddLogToHTML {
           */
          strLine = in.readLine();
          while (strLine != null){
+            if (strLine.length() > 0) {
+               lastLine = strLine;
+            }
             processIssues(strLine);
-            out.println(generateTableRow(strLine));
+            row.setLength(0);
+            generateTableRow(strLine, row);
+            out.append(row);
+            out.println();
             strLine = in.readLine();
          }
 
@@ -238,6 +422,10 @@ public class VddLogToHTML {
          e.printStackTrace();
       }
 
+      try {
+         in.close();
+      } catch (IOException e) {}
+
       out.print("\n</table>\n</center>\n</body>\n</html>\n");
       out.close();
    }
@@ -270,42 +458,39 @@ public class VddLogToHTML {
     */
    private String[] formatTestResults (String line, String message){
       String[] rowData = new String[3];
-      String tableHTML = "\n<table>\n";
-      String[] resData = message.split("--");
+      StringBuilder tableHTML = new StringBuilder("\n<table>\n");
+      String[] resData = FIELD_SEPARATOR.split(message);
 
       for (int i = 1; i < resData.length; i++){
-         tableHTML += "<tr class=\"tr_normal\""+
-                  " \"onMouseOver=\"this.className='highlight_report'\" "+
-                  "onMouseOut=\"this.className='tr_normal'\"> \n";
+         tableHTML.append("<tr class=\"tr_normal\"")
+            .append(" \"onMouseOver=\"this.className='highlight_report'\" ")
+            .append("onMouseOut=\"this.className='tr_normal'\"> \n");
          String[] lineData = resData[i].split(":");
          //data type
          if (lineData[0].equals("failedasserts")){
-            tableHTML += "\t<td><b>failed asserts: </b></td>\n";
+            tableHTML.append("\t<td><b>failed asserts: </b></td>\n");
          }
          else if (lineData[0].equals("passedasserts")){
-            tableHTML += "\t<td><b>passed asserts: </b></td>\n";
+            tableHTML.append("\t<td><b>passed asserts: </b></td>\n");
          }
          else {
-            tableHTML += "\t<td><b>" + lineData[0] + ":</b></td>\n";
+            tableHTML.append("\t<td><b>").append(lineData[0]).append(":</b></td>\n");
          }
 
          //table data
          if (!lineData[1].contentEquals("0") && !lineData[0].equals("passedasserts")){
-            tableHTML += "\t<td><font color=\"#FF0000\">\n";
-            tableHTML += "<b>" + lineData[1] + "</b>\n\t</td>\n";
+            tableHTML.append("\t<td><font color=\"#FF0000\">\n");
          }
          else {
-            tableHTML += "\t<td>\n";
-            tableHTML += "<b>" + lineData[1] + "</b>\n\t</td>\n";
+            tableHTML.append("\t<td>\n");
          }
-         //System.out.println(lineData[0] + " "+ lineData[1]);
-
+         tableHTML.append("<b>").append(lineData[1]).append("</b>\n\t</td>\n");
       }
 
-      tableHTML += "</table>";
+      tableHTML.append("</table>");
       rowData[0] = generateDateTime (line);
       rowData[1] = "Results";
-      rowData[2] = tableHTML;
+      rowData[2] = tableHTML.toString();
 
       return rowData;
    }
@@ -318,21 +503,22 @@ public class VddLogToHTML {
     */
    private String[] formatHTMLSavedResults (String line, String message, char msgType) {
       String[] rowData = new String[3];
-      Pattern p = null;
       Matcher m = null;
       String path = "";
       String url = "";
 
-      p = Pattern.compile("(html\\ssaved:\\s)(.*)", Pattern.CASE_INSENSITIVE);
-      m = p.matcher(line);
+      m = HTML_SAVED_PATTERN.matcher(line);
       if (m.find()) {
-         path = m.group(2);
+         path = m.group(1);
       }
 
-      p = Pattern.compile("(saved-html.*)");
-      m = p.matcher(path);
-      if (m.find()) {
-         url = m.group(1);
+      url = resolveArtifact(path);
+      if (url == null) {
+         url = "";
+         m = SAVED_HTML_PATTERN.matcher(path);
+         if (m.find()) {
+            url = m.group(1);
+         }
       }
 
       rowData[0] = generateDateTime(line);
@@ -342,6 +528,59 @@ public class VddLogToHTML {
       return rowData;
    }
 
+   /**
+    * takes a "Screenshot file" line from the raw .log file and links to the image
+    *
+    * @param line - the "Screenshot file" line from the raw SODA log file
+    * @return an array in the expected format
+    */
+   private String[] formatScreenshotSaved(String line, String message) {
+      String[] rowData = new String[3];
+      String path = message.substring(message.indexOf(":") + 1).trim();
+      String url = resolveArtifact(path);
+
+      rowData[0] = generateDateTime(line);
+      rowData[1] = "Log";
+      if (url == null) {
+         rowData[2] = safeHTMLString(message);
+      } else {
+         rowData[2] = "Screenshot: <a href=\""+url+"\" target=\"_blank\">" + url + "</a>";
+      }
+
+      return rowData;
+   }
+
+   /**
+    * Resolve a reference to the run's artifact store.
+    *
+    * <p>Artifacts are stored in the "artifacts" directory at the top
+    * of the result directory, which is either this report's
+    * directory (--test runs) or its parent (suite runs).  Only the
+    * part of the path from "artifacts" onward is used, so result
+    * directories can be moved after the run.  Compressed artifacts
+    * are linked as is rather than expanded.</p>
+    *
+    * @param path  the artifact path recorded in the log
+    * @return a link relative to the report file or null if path
+    *         does not refer to the artifact store
+    */
+   private String resolveArtifact(String path) {
+      Matcher m = ARTIFACT_PATTERN.matcher(path.replace('\\', '/'));
+      if (!m.find()) {
+         return null;
+      }
+
+      String url = m.group(1);
+      File dir = outfile.getParentFile();
+
+      if (!new File(dir, url).exists() && dir.getParentFile() != null &&
+          new File(dir.getParentFile(), url).exists()) {
+         url = "../" + url;
+      }
+
+      return url;
+   }
+
    /**
     * takes an exception bt from the raw .log file and makes a html table row from it
     *
@@ -357,17 +596,20 @@ public class VddLogToHTML {
       rowData[0] = generateDateTime (line);
       rowData[1] = "Backtrace";
 
-      String rowHTML =  "\t<a id=\""+hrefID+"\" href=\"javascript:showdiv('"+btID+"',"+
-               " '"+hrefID+"')\">[ Expand Backtrace ]<b>+</b><br>\n" +
-               "</a><br>\t<div id=\""+btID+"\" style=\"display: none\">\n";
+      StringBuilder rowHTML = new StringBuilder();
+      rowHTML.append("\t<a id=\"").append(hrefID)
+         .append("\" href=\"javascript:showdiv('").append(btID).append("',")
+         .append(" '").append(hrefID).append("')\">[ Expand Backtrace ]<b>+</b><br>\n")
+         .append("</a><br>\t<div id=\"").append(btID).append("\" style=\"display: none\">\n");
 
-      String[] eData = message.split("--");
+      String[] eData = FIELD_SEPARATOR.split(message);
       for (int i = 1; i < eData.length; i++){
-         rowHTML += "\t\t"+eData[i]+"<br>\n";
+         rowHTML.append("\t\t").append(eData[i]).append("<br>\n");
       }
-      rowHTML += "\t<a href=\"javascript:hidediv('"+btID+"', '"+hrefID+"')\">" +
-               "[ Collaspe Backtrace ]<b>-</b></a>\t\t</div>\n\n";
-      rowData[2] = rowHTML;
+      rowHTML.append("\t<a href=\"javascript:hidediv('").append(btID)
+         .append("', '").append(hrefID).append("')\">")
+         .append("[ Collaspe Backtrace ]<b>-</b></a>\t\t</div>\n\n");
+      rowData[2] = rowHTML.toString();
       return rowData;
    }
 
@@ -380,9 +622,9 @@ public class VddLogToHTML {
    private String[] formatMajorException (String line, String message) {
       String[] rowData = new String[3];
 
-      String[] msgData = message.split("--");
-      msgData[0] = msgData[0].replaceAll("(?i)major exception", "<b>Major Exception:</b>");
-      msgData[1] = msgData[1].replaceAll("(?i)exception message", "<b>Exception Message:</b>");
+      String[] msgData = FIELD_SEPARATOR.split(message);
+      msgData[0] = MAJOR_EXCEPTION_PATTERN.matcher(msgData[0]).replaceAll("<b>Major Exception:</b>");
+      msgData[1] = EXCEPTION_MESSAGE_PATTERN.matcher(msgData[1]).replaceAll("<b>Exception Message:</b>");
 
       rowData[0] = generateDateTime (line);
       rowData[1] = "Failure";
@@ -404,9 +646,7 @@ public class VddLogToHTML {
       rowData[1] = "Failure";
 
       String[] assertData = message.split(":");
-      assertData[1] = assertData[1].replaceFirst("'", "<b>'");
-      assertData[1] += "</b>";
-      rowData[2] = assertData[0] + assertData[1];
+      rowData[2] = assertData[0] + replaceFirst(assertData[1], "'", "<b>'") + "</b>";
 
       return rowData;
    }
@@ -445,21 +685,23 @@ public class VddLogToHTML {
       String msgText = message.substring(0, message.indexOf(".")+1);
       String msgData = message.substring(message.indexOf("--"), message.length()-1);
 
-      String rowHTML = "\t<b>"+msgText+":</b>" +
-               "\t<a id=\""+hrefID+"\" href=\"javascript:showdiv('"+edID+"',"+
-               " '"+hrefID+"')\">[ Expand Event Dump ]<b>+</b><br>\n" +
-               "</a><br>\t<div id=\""+edID+"\" style=\"display: none\">\n";
+      StringBuilder rowHTML = new StringBuilder();
+      rowHTML.append("\t<b>").append(msgText).append(":</b>")
+         .append("\t<a id=\"").append(hrefID)
+         .append("\" href=\"javascript:showdiv('").append(edID).append("',")
+         .append(" '").append(hrefID).append("')\">[ Expand Event Dump ]<b>+</b><br>\n")
+         .append("</a><br>\t<div id=\"").append(edID).append("\" style=\"display: none\">\n");
 
-      String[] eData = msgData.split("--");
+      String[] eData = FIELD_SEPARATOR.split(msgData);
       for (int i = 0; i < eData.length; i ++) {
-         rowHTML += "\t\t"+eData[i]+"<br>\n";
+         rowHTML.append("\t\t").append(eData[i]).append("<br>\n");
       }
 
-      rowHTML += "\t<a href=\"javascript:hidediv('"+edID+"'" +
-                ", '"+hrefID+"')\">" +
-                  "[ Collaspe Event Dump ]<b>-</b></a>\t\t</div>\n";
+      rowHTML.append("\t<a href=\"javascript:hidediv('").append(edID)
+         .append("', '").append(hrefID).append("')\">")
+         .append("[ Collaspe Event Dump ]<b>-</b></a>\t\t</div>\n");
 
-      rowData[2] = rowHTML;
+      rowData[2] = rowHTML.toString();
       return rowData;
    }
 
@@ -471,22 +713,23 @@ public class VddLogToHTML {
     */
    private String[] formatJSError (String line, String message) {
       String[] rowData = new String[3];
-      String rowHTML = "";
+      StringBuilder rowHTML = new StringBuilder();
 
       rowData[0] = generateDateTime (line);
       rowData[1] = "Log";
 
-      String[] msgData = message.split("--");
+      String[] msgData = FIELD_SEPARATOR.split(safeHTMLString(message));
       for (int i = 0; i < msgData.length; i++) {
-         String[] info = msgData[i].split("::");
+         String[] info = VALUE_SEPARATOR.split(msgData[i], 2);
          if (info.length < 2) {
-            rowHTML += "\t<b>"+info[0]+"</b><br>\n";
+            rowHTML.append("\t<b>").append(info[0]).append("</b><br>\n");
          } else {
-            rowHTML += "\t<b>"+info[0]+":</b> "+info[1]+"<br>\n";
+            rowHTML.append("\t<b>").append(info[0]).append(":</b> ")
+               .append(info[1]).append("<br>\n");
          }
       }
 
-      rowData[2] = rowHTML;
+      rowData[2] = rowHTML.toString();
       return rowData;
    }
 
@@ -501,9 +744,9 @@ public class VddLogToHTML {
 
       rowData[0] = generateDateTime (line);
       rowData[1] = "Un/Load";
-      message = message.replaceFirst("Test:", "<b>Test:</b>");
-      message = message.replaceFirst("Lib:", "<b>Lib:</b>");
-      message = message.replaceFirst("Module:", "<b>Module:</b>");
+      message = replaceFirst(message, "Test:", "<b>Test:</b>");
+      message = replaceFirst(message, "Lib:", "<b>Lib:</b>");
+      message = replaceFirst(message, "Module:", "<b>Module:</b>");
       rowData[2] = message;
 
       return rowData;
@@ -520,8 +763,9 @@ public class VddLogToHTML {
 
       rowData[0] = generateDateTime (line);
       rowData[1] = "Log";
-      String[] data = message.split(":");
-      rowData[2] = "<b>"+data[0]+":</b> <a href=\""+data[1]+"\">#{data[1]}</a>";
+      String[] data = safeHTMLString(message).split(":", 2);
+      String file = data[1].trim();
+      rowData[2] = "<b>"+data[0]+":</b> <a href=\""+file+"\">"+file+"</a>";
 
       return rowData;
    }
@@ -537,8 +781,8 @@ public class VddLogToHTML {
 
       rowData[0] = generateDateTime (line);
       rowData[1] = "Log";
-      message = Pattern.quote(message);
-      rowData[2] = message.replaceAll("with", "<b>'"+message+"'</b>");
+      message = safeHTMLString(message);
+      rowData[2] = replaceFirst(message, " with ", " with <b>") + "</b>";
 
       return rowData;
    }
@@ -555,8 +799,9 @@ public class VddLogToHTML {
       rowData[0] = generateDateTime (line);
       rowData[1] = "Log";
       message = safeHTMLString(message);
-      message = message.replaceAll(": ", ": <b>");
-      message += "</b>";
+      if (message.contains(": ")) {
+         message = message.replace(": ", ": <b>") + "</b>";
+      }
       rowData[2] = message;
 
       return rowData;
@@ -575,11 +820,8 @@ public class VddLogToHTML {
 
       String[] msgData = message.split(":", 2);
       String temp = msgData[0].substring(msgData[0].indexOf("'"), msgData[0].indexOf("by")-1);
-      msgData[0] = msgData[0].replaceFirst(temp, "<b>"+temp+"</b> ");
-      msgData[1] = msgData[1].replaceFirst("'", "<b>'");
-      msgData[1] += "</b>";
-
-      rowData[2] = msgData[0] + msgData[1];
+      rowData[2] = replaceFirst(msgData[0], temp, "<b>"+temp+"</b> ") +
+         replaceFirst(msgData[1], "'", "<b>'") + "</b>";
       return rowData;
    }
 
@@ -588,7 +830,7 @@ public class VddLogToHTML {
     *
     */
    private void generateHtmlHeader() {
-      String header = "";
+      StringBuilder header = new StringBuilder();
       String line = "";
       InputStream stream = null;
 
@@ -607,8 +849,7 @@ public class VddLogToHTML {
          BufferedReader in = new BufferedReader(new InputStreamReader(stream));
 
          while ((line = in.readLine()) != null) {
-            header += line;
-            header += "\n";
+            header.append(line).append("\n");
          }
 
       } catch (Exception exp ) {
@@ -625,8 +866,11 @@ public class VddLogToHTML {
     * @return A string of html that is the date and time of the log line
     */
    private String generateDateTime (String line){
-      String htmlDateTime = line.substring(1, line.indexOf("]"));
-      return htmlDateTime.replaceFirst("-", "- <br/>");
+      int end = line.indexOf("]");
+      if (end < 1) {
+         return "";
+      }
+      return replaceFirst(line.substring(1, end), "-", "- <br/>");
    }
 
    /**
@@ -636,9 +880,27 @@ public class VddLogToHTML {
     * @return the properly escaped String
     */
    private String safeHTMLString (String str){
-      str = str.replaceAll("<", "&lt;");
-      str = str.replaceAll(">", "&gt;");
-      return str;
+      return str.replace("<", "&lt;").replace(">", "&gt;");
+   }
+
+   /**
+    * Replace the first occurrence of a literal string
+    *
+    * <p>Unlike String.replaceFirst, neither argument is treated as a
+    * regular expression, so text from the log can be used safely.</p>
+    *
+    * @param str - String to search
+    * @param target - text to replace
+    * @param replacement - replacement text
+    * @return str with the first target replaced
+    */
+   private static String replaceFirst(String str, String target,
+                                      String replacement) {
+      int i = str.indexOf(target);
+      if (i < 0) {
+         return str;
+      }
+      return str.substring(0, i) + replacement + str.substring(i + target.length());
    }
 
 
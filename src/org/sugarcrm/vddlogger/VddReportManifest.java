@@ -0,0 +1,565 @@
+/*
+Copyright 2011-2012 SugarCRM Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+Please see the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.sugarcrm.vddlogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Record of the test logs converted by earlier report runs.
+ *
+ * <p>For each log the manifest keeps its size, modification time and
+ * SHA-1 hash, along with what the suite and issues reports need from
+ * it: the log's result line and its errors, warnings and exceptions.
+ * When reports are regenerated with --incremental, a log that still
+ * matches its entry is not converted again.  Its existing
+ * Report-*.html is kept and the suite report is built from the cached
+ * entry.</p>
+ *
+ * <p>The manifest also keeps each suite file's totals.  A suite file
+ * whose size and modification time are unchanged is not parsed
+ * again.</p>
+ *
+ * <p>Size and modification time are checked first.  The hash is only
+ * computed when the modification time has changed, so a log that was
+ * copied or touched without being changed is still recognized.</p>
+ *
+ * <p>The manifest is kept in the result directory.  Its name does not
+ * end in .xml so that it is not mistaken for a suite file.</p>
+ */
+class VddReportManifest {
+
+   static final String FILENAME = "report.manifest";
+
+   /**
+    * Manifest format version.  Changing the format of the generated
+    * reports should also change this, so that old reports are
+    * regenerated.
+    */
+   private static final String VERSION = "2";
+
+   private File file;
+   private ConcurrentHashMap<String, Entry> previous =
+      new ConcurrentHashMap<String, Entry>();
+   private ConcurrentHashMap<String, Entry> current =
+      new ConcurrentHashMap<String, Entry>();
+   private ConcurrentHashMap<String, SuiteEntry> previousSuites =
+      new ConcurrentHashMap<String, SuiteEntry>();
+   private ConcurrentHashMap<String, SuiteEntry> currentSuites =
+      new ConcurrentHashMap<String, SuiteEntry>();
+
+   /**
+    * What is known about one converted log.
+    */
+   static class Entry {
+      long size;
+      long mtime;
+      String hash;
+      String lastLine;
+      VddLogIssues issues;
+
+      /**
+       * Create an entry for a converted log.
+       *
+       * @param lastLine  last line of the log
+       * @param issues    issues found in the log
+       * @param size      size of the log that was converted
+       * @param mtime     modification time of the log before it was
+       *                  converted
+       * @param hash      SHA-1 hash of the log, or null if unknown
+       */
+      Entry(String lastLine, VddLogIssues issues, long size, long mtime,
+            String hash) {
+         this.lastLine = lastLine;
+         this.issues = issues;
+         this.size = size;
+         this.mtime = mtime;
+         this.hash = hash;
+      }
+
+      String getLastLine() {
+         return this.lastLine;
+      }
+
+      VddLogIssues getIssues() {
+         return this.issues;
+      }
+   }
+
+
+   /**
+    * The totals of one parsed suite file.
+    */
+   private static class SuiteEntry {
+      long size;
+      long mtime;
+      VddSuiteSummary summary;
+
+      SuiteEntry(long size, long mtime, VddSuiteSummary summary) {
+         this.size = size;
+         this.mtime = mtime;
+         this.summary = summary;
+      }
+   }
+
+
+   private VddReportManifest(File dir) {
+      this.file = new File(dir, FILENAME);
+   }
+
+
+   /**
+    * Load the manifest from a result directory.
+    *
+    * A missing or unreadable manifest yields an empty one, in which
+    * case every log is converted.
+    *
+    * @param dir  the result directory
+    * @return the manifest
+    */
+   public static VddReportManifest load(File dir) {
+      VddReportManifest m = new VddReportManifest(dir);
+
+      if (!m.file.exists()) {
+         return m;
+      }
+
+      try {
+         InputStream in = new BufferedInputStream(new FileInputStream(m.file));
+         try {
+            XMLStreamReader r =
+               XMLInputFactory.newInstance().createXMLStreamReader(in);
+            m.read(r);
+         } finally {
+            in.close();
+         }
+      } catch (Exception e) {
+         System.out.println("(W)Ignoring unreadable report manifest " +
+                            m.file + ": " + e);
+         m.previous.clear();
+         m.previousSuites.clear();
+      }
+
+      System.out.printf("(*)Report manifest: %d logs, %d suites.\n",
+                        m.previous.size(), m.previousSuites.size());
+
+      return m;
+   }
+
+
+   /**
+    * Find the entry for a log that has not changed since it was last
+    * converted.
+    *
+    * @param log  the test log
+    * @return the entry, or null if the log must be converted
+    */
+   public Entry lookup(File log) {
+      String key = key(log);
+      Entry e = this.previous.get(key);
+
+      if (e == null || !reportFile(log).exists() || e.size != log.length()) {
+         return null;
+      }
+
+      long mtime = log.lastModified();
+      if (e.mtime != mtime) {
+         try {
+            if (!hash(log).equals(e.hash)) {
+               return null;
+            }
+         } catch (IOException ex) {
+            return null;
+         }
+         e.mtime = mtime;
+      }
+
+      this.current.put(key, e);
+
+      return e;
+   }
+
+
+   /**
+    * Record a log that has just been converted.
+    *
+    * <p>The entry's size and hash come from the conversion's own pass
+    * over the log.  A log that changed while it was being converted
+    * then no longer matches its entry and is converted again next
+    * time.</p>
+    *
+    * @param log  the test log
+    * @param e    its last line, issues, size and hash
+    */
+   public void update(File log, Entry e) {
+      if (e.hash == null) {
+         System.out.println("(W)Not caching " + log + ": log not fully read");
+         return;
+      }
+
+      this.current.put(key(log), e);
+   }
+
+
+   /**
+    * Find the totals of a suite file that has not changed since it
+    * was last parsed.
+    *
+    * @param xml  the suite file
+    * @return the totals, or null if the file must be parsed
+    */
+   public VddSuiteSummary lookupSuite(File xml) {
+      SuiteEntry e = this.previousSuites.get(xml.getName());
+
+      if (e == null || e.size != xml.length() ||
+          e.mtime != xml.lastModified()) {
+         return null;
+      }
+
+      this.currentSuites.put(xml.getName(), e);
+
+      return e.summary;
+   }
+
+
+   /**
+    * Record the totals of a suite file that has just been parsed.
+    *
+    * @param xml      the suite file
+    * @param size     its size before it was parsed
+    * @param mtime    its modification time before it was parsed
+    * @param summary  its totals
+    */
+   public void updateSuite(File xml, long size, long mtime,
+                           VddSuiteSummary summary) {
+      this.currentSuites.put(xml.getName(),
+                             new SuiteEntry(size, mtime, summary));
+   }
+
+
+   /**
+    * Write the manifest.
+    *
+    * Only the logs and suites seen during this run are written, so
+    * entries for deleted files are dropped.  The manifest is written under a
+    * temporary name and renamed into place.
+    */
+   public void save() {
+      File tmp = new File(this.file.getPath() + ".tmp");
+      TreeMap<String, Entry> entries = new TreeMap<String, Entry>(this.current);
+      TreeMap<String, SuiteEntry> suites =
+         new TreeMap<String, SuiteEntry>(this.currentSuites);
+
+      try {
+         OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+         try {
+            XMLStreamWriter w =
+               XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            write(w, entries, suites);
+            w.close();
+         } finally {
+            out.close();
+         }
+      } catch (Exception e) {
+         System.out.println("(W)Failed to write report manifest: " + e);
+         tmp.delete();
+         return;
+      }
+
+      this.file.delete();
+      if (!tmp.renameTo(this.file)) {
+         System.out.println("(W)Failed to write report manifest " + this.file);
+         tmp.delete();
+      }
+   }
+
+
+   /**
+    * Read the manifest's entries.
+    */
+   private void read(XMLStreamReader r) throws XMLStreamException {
+      String key = null;
+      Entry e = null;
+
+      while (r.hasNext()) {
+         int ev = r.next();
+
+         if (ev == XMLStreamConstants.START_ELEMENT &&
+             r.getLocalName().equals("suite")) {
+            String path = r.getAttributeValue(null, "path");
+            long size = Long.parseLong(r.getAttributeValue(null, "size"));
+            long mtime = Long.parseLong(r.getAttributeValue(null, "mtime"));
+            this.previousSuites.put(path,
+                                    new SuiteEntry(size, mtime,
+                                                   VddSuiteSummary.readXML(r)));
+            continue;
+         }
+
+         if (ev == XMLStreamConstants.END_ELEMENT &&
+             r.getLocalName().equals("log") && e != null) {
+            this.previous.put(key, e);
+            e = null;
+            continue;
+         }
+
+         if (ev != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+
+         String name = r.getLocalName();
+
+         if (name.equals("manifest")) {
+            if (!VERSION.equals(r.getAttributeValue(null, "version"))) {
+               return;
+            }
+         } else if (name.equals("log")) {
+            key = r.getAttributeValue(null, "path");
+            e = new Entry("", new VddLogIssues(),
+                          Long.parseLong(r.getAttributeValue(null, "size")),
+                          Long.parseLong(r.getAttributeValue(null, "mtime")),
+                          r.getAttributeValue(null, "hash"));
+         } else if (e == null) {
+            continue;
+         } else if (name.equals("lastline")) {
+            e.lastLine = r.getElementText();
+         } else {
+            int count = Integer.parseInt(r.getAttributeValue(null, "count"));
+            String text = r.getElementText();
+
+            if (name.equals("error")) {
+               e.issues.addError(text, count);
+            } else if (name.equals("warning")) {
+               e.issues.addWarning(text, count);
+            } else if (name.equals("exception")) {
+               e.issues.addException(text, count);
+            }
+         }
+      }
+   }
+
+
+   /**
+    * Write the manifest's entries.
+    */
+   private static void write(XMLStreamWriter w, TreeMap<String, Entry> entries,
+                             TreeMap<String, SuiteEntry> suites)
+      throws XMLStreamException {
+      w.writeStartDocument("UTF-8", "1.0");
+      w.writeCharacters("\n");
+      w.writeStartElement("manifest");
+      w.writeAttribute("version", VERSION);
+      w.writeCharacters("\n");
+
+      for (Map.Entry<String, Entry> me: entries.entrySet()) {
+         Entry e = me.getValue();
+         HashMap<String, HashMap<String, Integer>> data = e.issues.getData();
+
+         if (!isXMLText(e.lastLine) || !isXMLText(data)) {
+            /* The log will simply be converted again next time. */
+            continue;
+         }
+
+         w.writeCharacters("\t");
+         w.writeStartElement("log");
+         w.writeAttribute("path", me.getKey());
+         w.writeAttribute("size", String.valueOf(e.size));
+         w.writeAttribute("mtime", String.valueOf(e.mtime));
+         w.writeAttribute("hash", e.hash);
+         w.writeCharacters("\n\t\t");
+         w.writeStartElement("lastline");
+         w.writeCharacters(e.lastLine);
+         w.writeEndElement();
+         w.writeCharacters("\n");
+         writeIssues(w, "error", data.get("errors"));
+         writeIssues(w, "warning", data.get("warnings"));
+         writeIssues(w, "exception", data.get("exceptions"));
+         w.writeCharacters("\t");
+         w.writeEndElement();
+         w.writeCharacters("\n");
+      }
+
+      for (Map.Entry<String, SuiteEntry> me: suites.entrySet()) {
+         SuiteEntry e = me.getValue();
+
+         if (!isXMLText(e.summary)) {
+            /* The suite will simply be parsed again next time. */
+            continue;
+         }
+
+         w.writeCharacters("\t");
+         w.writeStartElement("suite");
+         w.writeAttribute("path", me.getKey());
+         w.writeAttribute("size", String.valueOf(e.size));
+         w.writeAttribute("mtime", String.valueOf(e.mtime));
+         w.writeCharacters("\n");
+         e.summary.writeXML(w, "\t\t");
+         w.writeCharacters("\t");
+         w.writeEndElement();
+         w.writeCharacters("\n");
+      }
+
+      w.writeEndElement();
+      w.writeCharacters("\n");
+      w.writeEndDocument();
+   }
+
+
+   /**
+    * Write one kind of issue from a log entry.
+    */
+   private static void writeIssues(XMLStreamWriter w, String name,
+                                   HashMap<String, Integer> issues)
+      throws XMLStreamException {
+      for (Map.Entry<String, Integer> i: new TreeMap<String, Integer>(issues).entrySet()) {
+         w.writeCharacters("\t\t");
+         w.writeStartElement(name);
+         w.writeAttribute("count", String.valueOf(i.getValue()));
+         w.writeCharacters(i.getKey());
+         w.writeEndElement();
+         w.writeCharacters("\n");
+      }
+   }
+
+
+   /**
+    * Whether a string can be stored in XML unchanged.
+    */
+   private static boolean isXMLText(String s) {
+      for (int k = 0; k < s.length(); k++) {
+         char c = s.charAt(k);
+         if ((c < 0x20 && c != '\t') || c == 0xfffe || c == 0xffff) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+
+   /**
+    * Whether all issue text can be stored in XML unchanged.
+    */
+   private static boolean isXMLText(HashMap<String, HashMap<String, Integer>> data) {
+      for (HashMap<String, Integer> issues: data.values()) {
+         for (String s: issues.keySet()) {
+            if (!isXMLText(s)) {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+
+   /**
+    * Whether all text in a suite's totals can be stored in XML
+    * unchanged.
+    */
+   private static boolean isXMLText(VddSuiteSummary s) {
+      if (!isXMLText(s.suiteName)) {
+         return false;
+      }
+      for (HashMap<String, String> logs: s.testLogs) {
+         for (Map.Entry<String, String> v: logs.entrySet()) {
+            if (!isXMLText(v.getKey()) || !isXMLText(v.getValue())) {
+               return false;
+            }
+         }
+      }
+      for (VddSuiteSummary.TestTime t: s.testTimes) {
+         if (!isXMLText(t.testFile)) {
+            return false;
+         }
+      }
+      for (String key: s.timings.getHistograms().keySet()) {
+         if (!isXMLText(key)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+
+   /**
+    * Manifest key for a log: its suite directory and file name, so
+    * that the result directory can be moved.
+    */
+   private static String key(File log) {
+      return log.getAbsoluteFile().getParentFile().getName() + "/" +
+         log.getName();
+   }
+
+
+   /**
+    * The HTML report generated from a log.
+    */
+   private static File reportFile(File log) {
+      String fn = log.getName();
+      return new File(log.getParentFile(), "Report-" +
+                      fn.substring(0, fn.length() - 4) + ".html");
+   }
+
+
+   /**
+    * SHA-1 hash of a file, in hex.
+    */
+   private static String hash(File f) throws IOException {
+      MessageDigest md;
+
+      try {
+         md = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+         throw new IOException("SHA-1 not available", e);
+      }
+
+      InputStream in = new FileInputStream(f);
+      byte[] buf = new byte[64 * 1024];
+      int n;
+
+      try {
+         while ((n = in.read(buf)) > 0) {
+            md.update(buf, 0, n);
+         }
+      } finally {
+         in.close();
+      }
+
+      StringBuilder sb = new StringBuilder();
+      for (byte b: md.digest()) {
+         sb.append(String.format("%02x", b & 0xff));
+      }
+
+      return sb.toString();
+   }
+}
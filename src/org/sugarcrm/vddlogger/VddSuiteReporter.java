@@ -19,6 +19,11 @@ package org.sugarcrm.vddlogger;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,16 +33,53 @@ public class VddSuiteReporter {
    private ArrayList<File> filesList = null;
    private int count = 0;
    private String suiteName = null;
-   private FileReader input = null;
-   private BufferedReader br = null;
-   private String strLine, tmp = null;
    private FileOutputStream output = null;
    private PrintStream repFile = null;
    private String suiteDir = "";
    private VddLogIssues issues = null;
+   private ExecutorService pool = null;
+   private VddReportManifest manifest = null;
+   private ArrayList<Future<VddReportManifest.Entry>> conversions =
+      new ArrayList<Future<VddReportManifest.Entry>>();
+   private ArrayList<File> convertedLogs = new ArrayList<File>();
+   private boolean finished = false;
 
    public VddSuiteReporter(String suitename, String basedir, ArrayList<HashMap<String, String>> logfiles) {
+      this(suitename, basedir, logfiles, null);
+   }
+
+   /**
+    * Create a suite reporter that converts its logs on a thread pool.
+    *
+    * @param suitename  name of the suite
+    * @param basedir    result directory
+    * @param logfiles   test log information from the suite file
+    * @param pool       pool on which to convert logs to HTML, or null
+    *                   to convert them in the calling thread
+    */
+   public VddSuiteReporter(String suitename, String basedir,
+                           ArrayList<HashMap<String, String>> logfiles,
+                           ExecutorService pool) {
+      this(suitename, basedir, logfiles, pool, null);
+   }
+
+   /**
+    * Create a suite reporter that only converts changed logs.
+    *
+    * @param suitename  name of the suite
+    * @param basedir    result directory
+    * @param logfiles   test log information from the suite file
+    * @param pool       pool on which to convert logs to HTML, or null
+    *                   to convert them in the calling thread
+    * @param manifest   logs converted by earlier runs, or null to
+    *                   convert every log
+    */
+   public VddSuiteReporter(String suitename, String basedir,
+                           ArrayList<HashMap<String, String>> logfiles,
+                           ExecutorService pool, VddReportManifest manifest) {
       String filepath = "";
+      this.pool = pool;
+      this.manifest = manifest;
       this.suiteName = suitename;
       String outputDir = String.format("%s%s%s", basedir, File.separatorChar, suitename);
       System.out.printf("(*)SuiteReporter OutputDir: %s\n", outputDir);
@@ -80,6 +122,12 @@ public class VddSuiteReporter {
 
    /**
     * Generate an HTML report file.
+    *
+    * <p>Each test log is read exactly once, by {@link VddLogToHTML},
+    * which also picks up the test's result line.  Logs that the
+    * manifest shows to be unchanged are not read at all.  When a
+    * thread pool is in use the conversions are only queued here, and
+    * the suite report is completed by {@link #getIssues}.</p>
     */
 
    public void generateReport() {
@@ -96,47 +144,198 @@ public class VddSuiteReporter {
             continue;
          }
 
-         readNextLog(file);
+         final File logFile = file;
+         Callable<VddReportManifest.Entry> conversion =
+            new Callable<VddReportManifest.Entry>() {
+            public VddReportManifest.Entry call() {
+               return convert(logFile);
+            }
+         };
+
+         this.convertedLogs.add(file);
+         if (this.pool == null) {
+            FutureTask<VddReportManifest.Entry> task =
+               new FutureTask<VddReportManifest.Entry>(conversion);
+            task.run();
+            this.conversions.add(task);
+         } else {
+            this.conversions.add(this.pool.submit(conversion));
+         }
+      }
 
-         String baseName = file.getName().replaceAll(".log$", "");
+      if (this.pool == null) {
+         finish();
+      }
+   }
 
-         /* XXX: Wow. Just wow. */
-         //get last line
-         try {
-            while ((tmp = br.readLine()) != null) {
-               strLine = tmp;
-            }
-         } catch (IOException e) {
-            e.printStackTrace();
+   /**
+    * Start a suite report whose tests are added as they finish.
+    *
+    * Used for live reports, with {@link #addLog} and {@link #close}
+    * in place of {@link #generateReport}.
+    */
+
+   public void startReport() {
+      generateHTMLHeader();
+      repFile.flush();
+   }
+
+   /**
+    * Convert a finished test's log and add it to the suite report.
+    *
+    * @param log  the test log
+    */
+
+   public void addLog(File log) {
+      addTableRow(log, convert(log));
+      repFile.flush();
+   }
+
+   /**
+    * Complete the suite report.
+    */
+
+   public void close() {
+      finish();
+   }
+
+   /**
+    * Convert one log to HTML, unless the manifest shows that an
+    * earlier conversion is still current.
+    *
+    * @param file  the test log
+    * @return the log's last line and issues, or null on failure
+    */
+   private VddReportManifest.Entry convert(File file) {
+      String log = this.suiteDir + File.separatorChar + file.getName();
+
+      if (this.manifest != null) {
+         VddReportManifest.Entry cached = this.manifest.lookup(file);
+         if (cached != null) {
+            System.out.println("(*)Unchanged Log File: " + log);
+            return cached;
          }
-         //find log status, generate table row
+      }
 
-         if (strLine.contains("blocked:1")) {
-            generateTableRow(baseName, 2, null);
-         } else if (strLine.contains("result:-1")) {
-            generateTableRow(baseName, 0, strLine);
-         } else {
-            generateTableRow(baseName, 1, null);
+      try {
+         long mtime = file.lastModified();
+         System.out.println("(*)Log File: " + log);
+         VddLogToHTML log2html = new VddLogToHTML(log);
+         log2html.generateReport();
+         VddReportManifest.Entry result =
+            new VddReportManifest.Entry(log2html.getLastLine(),
+                                        log2html.getIssues(),
+                                        log2html.getLogSize(), mtime,
+                                        log2html.getLogHash());
+         if (this.manifest != null) {
+            this.manifest.update(file, result);
          }
+         return result;
+      } catch (VDDLogException e) {
+         System.err.println("Failed to process " + log + ": " +
+                            e.getMessage());
+         return null;
+      }
+   }
+
+   /**
+    * Wait for the log conversions and complete the suite report.
+    *
+    * Table rows are written and issues merged in log order.
+    */
+   private void finish() {
+      if (this.finished) {
+         return;
+      }
+      this.finished = true;
+
+      for (int i = 0; i < this.conversions.size(); i++) {
+         VddReportManifest.Entry converted = null;
 
          try {
-            String log = this.suiteDir + File.separatorChar + file.getName();
-            System.out.println("(*)Log File: " + log);
-            VddLogToHTML log2html = new VddLogToHTML(log);
-            log2html.generateReport();
-            VddLogIssues tmpissues = log2html.getIssues();
-            this.issues.appendIssues(tmpissues);
-            tmpissues = null;
-         } catch (VDDLogException e) {
-            System.err.println("Failed to process " + file + ": " +
-                               e.getMessage());
+            converted = this.conversions.get(i).get();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+         } catch (ExecutionException e) {
+            System.err.println("(!)Failed to convert log: " + e.getCause());
          }
+
+         addTableRow(this.convertedLogs.get(i), converted);
       }
+      this.conversions.clear();
 
       repFile.print("\n</table>\n</body>\n</html>\n");
       repFile.close();
    }
 
+   /**
+    * Add a converted log's row to the report and merge its issues.
+    *
+    * @param file       the test log
+    * @param converted  the log's last line and issues, or null if it
+    *                   could not be converted
+    */
+   private void addTableRow(File file, VddReportManifest.Entry converted) {
+      String baseName = file.getName().replaceAll(".log$", "");
+      String strLine;
+
+      if (converted != null) {
+         strLine = converted.getLastLine();
+         this.issues.appendIssues(converted.getIssues());
+      } else {
+         strLine = readLastLine(file);
+      }
+
+      //find log status, generate table row
+      if (strLine.contains("blocked:1")) {
+         generateTableRow(baseName, 2, null);
+      } else if (strLine.contains("result:-1")) {
+         generateTableRow(baseName, 0, strLine);
+      } else {
+         generateTableRow(baseName, 1, null);
+      }
+   }
+
+   /**
+    * Read the last line of a file without reading the whole file.
+    *
+    * Used only when a log could not be converted to HTML.
+    *
+    * @param file  the log file
+    * @return the last non-empty line, or "" if it can't be read
+    */
+   private static String readLastLine(File file) {
+      RandomAccessFile raf = null;
+
+      try {
+         raf = new RandomAccessFile(file, "r");
+         long end = raf.length();
+         int len = (int)Math.min(end, 64 * 1024);
+         byte[] buf = new byte[len];
+
+         raf.seek(end - len);
+         raf.readFully(buf);
+
+         String[] lines = new String(buf, "UTF-8").split("\r?\n");
+         for (int k = lines.length - 1; k >= 0; k--) {
+            if (lines[k].length() > 0) {
+               return lines[k];
+            }
+         }
+      } catch (IOException e) {
+         System.out.printf("(!)Error: Reading file: '%s'!\n", file);
+      } finally {
+         if (raf != null) {
+            try {
+               raf.close();
+            } catch (IOException e) {}
+         }
+      }
+
+      return "";
+   }
+
    private HashMap<String, String>findErrorInfo(String line) {
       HashMap<String, String> result = new HashMap<String, String>();
       String[] items = {
@@ -322,24 +521,17 @@ public class VddSuiteReporter {
 
    }
 
-   public VddLogIssues getIssues() {
-      return this.issues;
-   }
-
    /**
-    * sets up FileReader and BufferedReader for the next report file
-    * @param inputFile - a properly formatted .log SODA report file
+    * Get the issues found in this suite's logs.
+    *
+    * If the logs are being converted on a thread pool, this waits for
+    * the conversions to finish and completes the suite report.
+    *
+    * @return the issues
     */
-   private void readNextLog(File inputFile) {
-
-      try {
-         input = new FileReader(inputFile);
-         br = new BufferedReader(input);
-      } catch (FileNotFoundException e) {
-         System.out.printf("(!)Error: Failed to find file: '%s'!\n", inputFile);
-      } catch (Exception e) {
-         System.out.printf("(!)Error: Reading file: '%s'!\n", inputFile);
-      }
+   public VddLogIssues getIssues() {
+      finish();
+      return this.issues;
    }
 
 }
@@ -0,0 +1,474 @@
+/*
+Copyright 2011-2012 SugarCRM Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+Please see the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.sugarcrm.vddlogger;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.sugarcrm.voodoodriver.EventTimings;
+import org.sugarcrm.voodoodriver.LatencyHistogram;
+
+/**
+ * Totals for a single suite XML file.
+ *
+ * <p>The suite file is read in one streaming pass and every counter
+ * needed by the summary report is accumulated along the way.  Each
+ * test's values are collected as its &lt;test&gt; element is read and
+ * only added to the totals when the closing tag is seen.  A file
+ * that ends prematurely (e.g. the test machine crashed mid-run)
+ * therefore yields the totals of its complete tests and is marked
+ * truncated, without having to re-read and patch up the file.</p>
+ */
+class VddSuiteSummary {
+
+   int passed = 0;
+   int failed = 0;
+   int blocked = 0;
+   int asserts = 0;
+   int assertsF = 0;
+   int exceptions = 0;
+   int errors = 0;
+   int watchdog = 0;
+   int hours = 0;
+   int minutes = 0;
+   int seconds = 0;
+   boolean truncated = false;
+   String suiteName = null;
+   ArrayList<HashMap<String, String>> testLogs =
+      new ArrayList<HashMap<String, String>>();
+   EventTimings timings = new EventTimings();
+   ArrayList<TestTime> testTimes = new ArrayList<TestTime>();
+
+   /**
+    * How long one test took.
+    */
+   static class TestTime {
+      String testFile;
+      int millis;
+
+      TestTime(String testFile, int millis) {
+         this.testFile = testFile;
+         this.millis = millis;
+      }
+   }
+
+   /**
+    * Values from a single &lt;test&gt; element.
+    */
+   private static class TestData {
+      String result = null;
+      String testFile = null;
+      Boolean restart = null;
+      Integer blocked = null;
+      int asserts = 0;
+      int assertsF = 0;
+      int exceptions = 0;
+      int errors = 0;
+      int watchdog = 0;
+      int hours = 0;
+      int minutes = 0;
+      int seconds = 0;
+      int millis = -1;
+      HashMap<String, String> logs = new HashMap<String, String>();
+      EventTimings timings = new EventTimings();
+   }
+
+   /**
+    * Read a suite XML file.
+    *
+    * @param xml  the suite file
+    * @return totals for the suite
+    * @throws IOException if the file cannot be read
+    */
+   public static VddSuiteSummary parse(File xml) throws IOException {
+      VddSuiteSummary s = new VddSuiteSummary();
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      InputStream in = new BufferedInputStream(new FileInputStream(xml));
+
+      try {
+         XMLStreamReader r = factory.createXMLStreamReader(in);
+         s.read(r);
+      } catch (XMLStreamException e) {
+         System.out.println("(!)Error parsing log file (" + e.getMessage() +
+                            ").  Using the complete tests only.");
+         s.truncated = true;
+      } finally {
+         in.close();
+      }
+
+      if (s.suiteName == null) {
+         s.suiteName = xml.getName();
+      }
+
+      int dot = s.suiteName.indexOf(".");
+      if (dot >= 0) {
+         s.suiteName = s.suiteName.substring(0, dot);
+      }
+
+      return s;
+   }
+
+   /**
+    * Read totals written by {@link #writeXML}.
+    *
+    * <p>The reader must be positioned on the enclosing element, which
+    * is read up to and including its end tag.</p>
+    *
+    * @param r  the reader
+    * @return the totals
+    * @throws XMLStreamException if the totals cannot be read
+    */
+   static VddSuiteSummary readXML(XMLStreamReader r) throws XMLStreamException {
+      VddSuiteSummary s = new VddSuiteSummary();
+      HashMap<String, String> logs = null;
+      int depth = 0;
+
+      while (r.hasNext()) {
+         int ev = r.next();
+
+         if (ev == XMLStreamConstants.END_ELEMENT) {
+            if (depth-- == 0) {
+               break;
+            }
+            if (r.getLocalName().equals("test") && logs != null) {
+               s.testLogs.add(logs);
+               logs = null;
+            }
+            continue;
+         }
+
+         if (ev != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+
+         depth++;
+         String name = r.getLocalName();
+
+         if (name.equals("totals")) {
+            s.suiteName = r.getAttributeValue(null, "name");
+            s.truncated = Boolean.valueOf(r.getAttributeValue(null, "truncated"));
+            s.passed = intAttribute(r, "passed");
+            s.failed = intAttribute(r, "failed");
+            s.blocked = intAttribute(r, "blocked");
+            s.asserts = intAttribute(r, "asserts");
+            s.assertsF = intAttribute(r, "assertsF");
+            s.exceptions = intAttribute(r, "exceptions");
+            s.errors = intAttribute(r, "errors");
+            s.watchdog = intAttribute(r, "watchdog");
+            s.hours = intAttribute(r, "hours");
+            s.minutes = intAttribute(r, "minutes");
+            s.seconds = intAttribute(r, "seconds");
+         } else if (name.equals("test")) {
+            logs = new HashMap<String, String>();
+         } else if (name.equals("value") && logs != null) {
+            logs.put(r.getAttributeValue(null, "name"), r.getElementText());
+            depth--;
+         } else if (name.equals("time")) {
+            s.testTimes.add(new TestTime(r.getAttributeValue(null, "file"),
+                                         intAttribute(r, "millis")));
+         } else if (name.equals("timing")) {
+            addTiming(s.timings, r);
+         }
+      }
+
+      return s;
+   }
+
+   /**
+    * Write the totals, for {@link #readXML} to read back later.
+    *
+    * @param w       the writer, inside the enclosing element
+    * @param indent  indentation for the totals' elements
+    * @throws XMLStreamException if the totals cannot be written
+    */
+   void writeXML(XMLStreamWriter w, String indent) throws XMLStreamException {
+      w.writeCharacters(indent);
+      w.writeEmptyElement("totals");
+      w.writeAttribute("name", this.suiteName);
+      w.writeAttribute("truncated", String.valueOf(this.truncated));
+      w.writeAttribute("passed", String.valueOf(this.passed));
+      w.writeAttribute("failed", String.valueOf(this.failed));
+      w.writeAttribute("blocked", String.valueOf(this.blocked));
+      w.writeAttribute("asserts", String.valueOf(this.asserts));
+      w.writeAttribute("assertsF", String.valueOf(this.assertsF));
+      w.writeAttribute("exceptions", String.valueOf(this.exceptions));
+      w.writeAttribute("errors", String.valueOf(this.errors));
+      w.writeAttribute("watchdog", String.valueOf(this.watchdog));
+      w.writeAttribute("hours", String.valueOf(this.hours));
+      w.writeAttribute("minutes", String.valueOf(this.minutes));
+      w.writeAttribute("seconds", String.valueOf(this.seconds));
+      w.writeCharacters("\n");
+
+      for (HashMap<String, String> logs: this.testLogs) {
+         w.writeCharacters(indent);
+         w.writeStartElement("test");
+         for (Map.Entry<String, String> v: logs.entrySet()) {
+            w.writeStartElement("value");
+            w.writeAttribute("name", v.getKey());
+            w.writeCharacters(v.getValue());
+            w.writeEndElement();
+         }
+         w.writeEndElement();
+         w.writeCharacters("\n");
+      }
+
+      for (TestTime t: this.testTimes) {
+         w.writeCharacters(indent);
+         w.writeEmptyElement("time");
+         w.writeAttribute("file", t.testFile);
+         w.writeAttribute("millis", String.valueOf(t.millis));
+         w.writeCharacters("\n");
+      }
+
+      if (!this.timings.isEmpty()) {
+         this.timings.writeXML(w, indent);
+      }
+   }
+
+   /**
+    * Add a test that has just been run.
+    *
+    * <p>This is used to keep a suite's totals while tests are still
+    * running.  Values are given as they would appear in the suite
+    * file.</p>
+    *
+    * @param values   the test's results, keyed by suite file element name
+    * @param timings  the test's event timings, or null
+    */
+   void addTest(Map<String, String> values, EventTimings timings) {
+      TestData test = new TestData();
+
+      for (Map.Entry<String, String> v: values.entrySet()) {
+         addTestValue(test, v.getKey(), v.getValue());
+      }
+      if (timings != null) {
+         test.timings.merge(timings);
+      }
+
+      addTest(test);
+   }
+
+   /**
+    * Get the suite's total run time.
+    *
+    * @return run time as hh:mm:ss
+    */
+   public String getRunTime() {
+      return formatTime(this.hours, this.minutes, this.seconds);
+   }
+
+   /**
+    * Format hours, minutes and seconds, carrying over as needed.
+    *
+    * @param h  hours
+    * @param m  minutes
+    * @param s  seconds
+    * @return time as hh:mm:ss
+    */
+   public static String formatTime(int h, int m, int s) {
+      m += s / 60;
+      s %= 60;
+      h += m / 60;
+      m %= 60;
+
+      return String.format("0%d:%02d:%02d", h, m, s);
+   }
+
+   /**
+    * Accumulate the contents of a suite file.
+    */
+   private void read(XMLStreamReader r) throws XMLStreamException {
+      TestData test = null;
+
+      while (r.hasNext()) {
+         int ev = r.next();
+
+         if (ev == XMLStreamConstants.END_ELEMENT &&
+             r.getLocalName().equals("test") && test != null) {
+            addTest(test);
+            test = null;
+            continue;
+         }
+
+         if (ev != XMLStreamConstants.START_ELEMENT) {
+            continue;
+         }
+
+         String name = r.getLocalName();
+
+         if (name.equals("test")) {
+            test = new TestData();
+         } else if (name.equals("truncated")) {
+            this.truncated = true;
+         } else if (name.equals("suitefile")) {
+            String text = r.getElementText();
+            if (this.suiteName == null) {
+               this.suiteName = text;
+            }
+         } else if (test == null) {
+            continue;
+         } else if (name.equals("timing")) {
+            addTiming(test.timings, r);
+         } else if (name.equals("eventtimings")) {
+            continue;
+         } else {
+            addTestValue(test, name, r.getElementText());
+         }
+      }
+   }
+
+   /**
+    * Record one value from a test.
+    */
+   private void addTestValue(TestData test, String name, String text) {
+      text = text.trim();
+
+      if (name.equals("result")) {
+         test.result = text;
+      } else if (name.equals("testfile")) {
+         test.testFile = text;
+      } else if (name.equals("isrestart")) {
+         test.restart = Boolean.valueOf(text);
+         test.logs.put(name, text.toLowerCase());
+      } else if (name.equals("blocked")) {
+         test.blocked = Integer.valueOf(text);
+      } else if (name.equals("passedasserts")) {
+         test.asserts += Integer.parseInt(text);
+      } else if (name.equals("failedasserts")) {
+         test.assertsF += Integer.parseInt(text);
+      } else if (name.equals("exceptions")) {
+         test.exceptions += Integer.parseInt(text);
+      } else if (name.equals("errors")) {
+         test.errors += Integer.parseInt(text);
+      } else if (name.equals("watchdog")) {
+         test.watchdog += Integer.parseInt(text);
+      } else if (name.equals("totaltesttime")) {
+         test.hours += Integer.parseInt(text.substring(0, text.indexOf(":")));
+         test.minutes += Integer.parseInt(text.substring(2, text.lastIndexOf(":")));
+         test.seconds += Integer.parseInt(text.substring(text.lastIndexOf(":") + 1,
+                                                         text.indexOf(".")));
+         test.millis = parseMillis(text);
+      } else if (name.contains("testlog")) {
+         test.logs.put(name, text);
+      }
+   }
+
+   /**
+    * Record one event timing histogram.
+    */
+   private static void addTiming(EventTimings timings, XMLStreamReader r) {
+      try {
+         LatencyHistogram h =
+            LatencyHistogram.decode(r.getAttributeValue(null, "buckets"),
+                                    Long.parseLong(r.getAttributeValue(null, "total")),
+                                    Long.parseLong(r.getAttributeValue(null, "max")));
+         timings.add(r.getAttributeValue(null, "type"),
+                     r.getAttributeValue(null, "phase"), h);
+      } catch (RuntimeException e) {
+         System.out.println("(!)Skipping malformed event timing: " + e);
+      }
+   }
+
+   /**
+    * Add a completed test to the suite totals.
+    */
+   private void addTest(TestData test) {
+      boolean restart = (test.restart != null && test.restart);
+      boolean blocked = (test.blocked != null && test.blocked != 0);
+      boolean lib = isLibTest(test.testFile);
+
+      if (test.result != null && !restart && !lib) {
+         if (test.result.equalsIgnoreCase("Passed")) {
+            this.passed++;
+         } else if (test.result.equalsIgnoreCase("Failed") && !blocked) {
+            this.failed++;
+         }
+      }
+
+      if (test.blocked != null && test.blocked == 1 && !restart && !lib) {
+         this.blocked++;
+      }
+
+      this.asserts += test.asserts;
+      this.assertsF += test.assertsF;
+      this.exceptions += test.exceptions;
+      this.errors += test.errors;
+      this.watchdog += test.watchdog;
+      this.hours += test.hours;
+      this.minutes += test.minutes;
+      this.seconds += test.seconds;
+      this.testLogs.add(test.logs);
+      this.timings.merge(test.timings);
+
+      if (test.testFile != null && test.millis >= 0 && !restart) {
+         this.testTimes.add(new TestTime(test.testFile, test.millis));
+      }
+   }
+
+   /**
+    * Read an integer attribute.
+    */
+   private static int intAttribute(XMLStreamReader r, String name) {
+      return Integer.parseInt(r.getAttributeValue(null, name));
+   }
+
+   /**
+    * Convert a test time to milliseconds.
+    *
+    * Test times are written as h:m:s.ms, with none of the fields
+    * padded, so the part after the dot is a count of milliseconds
+    * rather than a decimal fraction.
+    *
+    * @param text  test time
+    * @return milliseconds
+    */
+   private static int parseMillis(String text) {
+      String[] f = text.split("[:.]");
+      return (((Integer.parseInt(f[0]) * 60 + Integer.parseInt(f[1])) * 60 +
+               Integer.parseInt(f[2])) * 1000 + Integer.parseInt(f[3]));
+   }
+
+   /**
+    * Whether a test file is in a lib directory.
+    */
+   private static boolean isLibTest(String testFile) {
+      if (testFile == null) {
+         return false;
+      }
+
+      String path = new File(testFile).getParent();
+      if (path == null) {
+         /*
+          * Filename contains no path information, so it's
+          * impossible to know whether this is in the lib.
+          */
+         return false;
+      }
+
+      return path.toLowerCase().contains("lib");
+   }
+}
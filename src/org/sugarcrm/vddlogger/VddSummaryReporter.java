@@ -17,17 +17,17 @@ limitations under the License.
 package org.sugarcrm.vddlogger;
 
 import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.nio.CharBuffer;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import org.xml.sax.SAXParseException;
-import org.xml.sax.InputSource;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.sugarcrm.voodoodriver.EventTimings;
+import org.sugarcrm.voodoodriver.LatencyHistogram;
 
 public class VddSummaryReporter {
 
@@ -48,13 +48,56 @@ public class VddSummaryReporter {
    private int seconds = 0;
    private FileOutputStream output;
    private PrintStream repFile;
-   private Document dom;
    private String basedir = "";
    private VddLogIssues issues = null;
    private String issuesHtmlFile = null;
+   private EventTimings timings = new EventTimings();
+   private int jobs = 1;
+   private ExecutorService pool = null;
+   private VddReportManifest manifest = null;
+   private ArrayList<VddSuiteReporter> suiteReporters =
+      new ArrayList<VddSuiteReporter>();
+   private ArrayList<VddSuiteSummary> suites = new ArrayList<VddSuiteSummary>();
+
+   /**
+    * Number of rows in the slowest events table.
+    */
+
+   private final static int SLOWEST_EVENTS = 20;
 
    public VddSummaryReporter(ArrayList<File> xmlFiles, File path) {
+      this(xmlFiles, path, Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+    * Create a summary reporter that uses several worker threads.
+    *
+    * <p>Suite files are parsed and test logs converted to HTML on a
+    * pool of <code>jobs</code> threads.  Results are combined in
+    * suite and log order, so the output does not depend on the
+    * number of threads.</p>
+    *
+    * @param xmlFiles  suite files to summarize
+    * @param path      directory in which to write the summary
+    * @param jobs      number of worker threads
+    */
+   public VddSummaryReporter(ArrayList<File> xmlFiles, File path, int jobs) {
+      this(xmlFiles, path, jobs, false);
+   }
+
+   /**
+    * Create a summary reporter, optionally regenerating only the test
+    * reports whose logs have changed since the last run.
+    *
+    * @param xmlFiles     suite files to summarize
+    * @param path         directory in which to write the summary
+    * @param jobs         number of worker threads
+    * @param incremental  whether to reuse reports of unchanged logs
+    */
+   public VddSummaryReporter(ArrayList<File> xmlFiles, File path, int jobs,
+                             boolean incremental) {
       this.count = 0;
+      this.jobs = Math.max(1, jobs);
       this.xmlFiles = xmlFiles;
       passedTests = 0;
       failedTests = 0;
@@ -75,6 +118,10 @@ public class VddSummaryReporter {
 
       this.issues = new VddLogIssues();
 
+      if (incremental) {
+         this.manifest = VddReportManifest.load(path);
+      }
+
       try {
          output = new FileOutputStream(summaryFile);
          System.out.printf("(*)SummaryFile: %s\n", summaryFile);
@@ -113,7 +160,8 @@ public class VddSummaryReporter {
          InputStreamReader in = new InputStreamReader(stream);
          BufferedReader br = new BufferedReader(in);
          File fd = new File(this.issuesHtmlFile);
-         BufferedWriter out = new BufferedWriter(new FileWriter(fd));
+         BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fd),
+                                                                        "UTF-8"));
 
          while ((line = br.readLine()) != null) {
             out.write(line + "\n");
@@ -121,6 +169,12 @@ public class VddSummaryReporter {
          br.close();
          in.close();
 
+         if (this.issues.isTruncated()) {
+            out.write(String.format("<p>Only the %d most frequent issues of each kind are listed." +
+                                    "  Their counts may be overstated.</p>\n",
+                                    VddLogIssues.CAPACITY));
+         }
+
          tmpMap = this.issues.getData().get("errors");
          out.write("<table>\n");
          out.write("<tr>\n<td class=\"td_header_master\" colspan=\"2\">Errors:</td>\n</tr>\n");
@@ -178,20 +232,22 @@ public class VddSummaryReporter {
 
    }
 
-   private String[] sortIssue(HashMap<String, Integer> map) {
-      String[] keys = null;
-
-      keys = map.keySet().toArray(new String[0]);
-
-      for (int i = 0; i <= keys.length -1; i++) {
-         int count = map.get(keys[i]);
-         keys[i] = String.format("%d:%s", count, keys[i]);
-      }
-
-      Arrays.sort(keys);
-      for (int i = 0; i <= keys.length -1; i++) {
-         keys[i] = keys[i].replaceFirst("\\d+:", "");
-      }
+   /**
+    * Sort issues by count, least frequent first.
+    *
+    * @param map  issues and their counts
+    * @return the issues in order
+    */
+   private String[] sortIssue(final HashMap<String, Integer> map) {
+      String[] keys = map.keySet().toArray(new String[0]);
+
+      Arrays.sort(keys, new Comparator<String>() {
+         public int compare(String a, String b) {
+            int ca = map.get(a);
+            int cb = map.get(b);
+            return (ca != cb) ? ((ca < cb) ? -1 : 1) : a.compareTo(b);
+         }
+      });
 
       return keys;
    }
@@ -201,15 +257,29 @@ public class VddSummaryReporter {
       repFile.print(generateHTMLHeader());
       String name = "";
       String[] keys = null;
+      ArrayList<Future<VddSuiteSummary>> parsed =
+         new ArrayList<Future<VddSuiteSummary>>();
 
+      this.pool = Executors.newFixedThreadPool(this.jobs);
+
+      for (final File xml: xmlFiles) {
+         parsed.add(this.pool.submit(new Callable<VddSuiteSummary>() {
+               public VddSuiteSummary call() throws Exception {
+                  return parseSuite(xml);
+               }
+            }));
+      }
 
       for (int i = 0; i < xmlFiles.size(); i ++) {
          HashMap<String, Object> suiteData = null;
          try {
-            suiteData = parseXMLFile(xmlFiles.get(i));
+            VddSuiteSummary s = parsed.get(i).get();
+            this.suites.add(s);
+            suiteData = addSuite(s);
          } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("(!)Failed to parse " + xmlFiles.get(i) + ": " + e);
+            Throwable cause = (e instanceof ExecutionException) ? e.getCause() : e;
+            cause.printStackTrace();
+            System.out.println("(!)Failed to parse " + xmlFiles.get(i) + ": " + cause);
             continue;
          }
          name = suiteData.get("suitename").toString();
@@ -222,113 +292,148 @@ public class VddSummaryReporter {
       for (int i = 0; i <= keys.length -1; i++) {
          String key = keys[i];
          repFile.print(generateTableRow(key, list.get(key)));
+         generateSuiteReport(key, list.get(key));
       }
 
       repFile.print(generateHTMLFooter());
+      repFile.print(generateTimingsTable());
       repFile.print("\n</body>\n</html>\n");
       repFile.close();
 
+      /* Wait for the log conversions and collect their issues in order. */
+      for (VddSuiteReporter reporter: this.suiteReporters) {
+         this.issues.appendIssues(reporter.getIssues());
+      }
+      this.pool.shutdown();
+
+      if (this.manifest != null) {
+         this.manifest.save();
+      }
+
       this.writeIssues();
    }
 
-   private boolean isRestart(Node node) {
-      boolean result = false;
-      NodeList parent = node.getParentNode().getChildNodes();
+   /**
+    * Get the totals of a suite file.
+    *
+    * <p>With --incremental, the totals of a suite file that has not
+    * changed since the last report run are taken from the manifest
+    * instead of parsing the file again.</p>
+    *
+    * @param xml  the suite file
+    * @return the suite's totals
+    * @throws IOException if the file cannot be read
+    */
+   private VddSuiteSummary parseSuite(File xml) throws IOException {
+      if (this.manifest == null) {
+         return VddSuiteSummary.parse(xml);
+      }
 
-      for (int i = 0; i <= parent.getLength() -1; i++) {
-         Node tmp = parent.item(i);
-         String name = tmp.getNodeName();
-         if (name.contains("isrestart")) {
-            result = Boolean.valueOf(tmp.getTextContent());
-            break;
-         }
+      VddSuiteSummary s = this.manifest.lookupSuite(xml);
+      if (s != null) {
+         return s;
       }
 
-      return result;
+      long size = xml.length();
+      long mtime = xml.lastModified();
+      s = VddSuiteSummary.parse(xml);
+      this.manifest.updateSuite(xml, size, mtime, s);
+
+      return s;
    }
 
-   private boolean isLibTest(Node node) {
-      NodeList parent = node.getParentNode().getChildNodes();
-
-      for (int i = 0; i <= parent.getLength() -1; i++) {
-         Node tmp = parent.item(i);
-         String name = tmp.getNodeName();
-         if (name.contains("testfile")) {
-            File fd = new File(tmp.getTextContent());
-            String path = fd.getParent();
-            if (path == null) {
-               /*
-                * Filename contains no path information, so it's
-                * impossible to know whether this is in the lib.
-                */
-               return false;
-            }
-            path = path.toLowerCase();
-
-            if (path.contains("lib")) {
-               return true;
-            }
-         }
+   /**
+    * Add this run's test durations to a timing history and write
+    * trends.html, showing the tests that have become slower.
+    *
+    * <p>Must be called after {@link #generateReport()}.</p>
+    *
+    * @param history  the timing history file
+    */
+   public void generateTrendReport(File history) {
+      long time = 0;
+
+      for (File xml: this.xmlFiles) {
+         time = Math.max(time, xml.lastModified());
       }
 
-      return false;
+      VddTimingHistory h = VddTimingHistory.load(history, runKey());
+      h.writeReport(new File(this.basedir), this.suites);
+      h.addRun(time, this.suites);
    }
 
-   private boolean isBlocked(Node node) {
-      boolean result = false;
-      NodeList parent = node.getParentNode().getChildNodes();
-
-      for (int i = 0; i <= parent.getLength() -1; i++) {
-         Node tmp = parent.item(i);
-         String name = tmp.getNodeName();
-         if (name.contains("blocked")) {
-            int blocked = Integer.valueOf(tmp.getTextContent());
-            if (blocked != 0) {
-               result = true;
-            } else {
-               result = false;
-            }
-            break;
+   /**
+    * Identify this run in the timing history.
+    *
+    * <p>The key is a hash of the suite files' names, sizes and
+    * modification times.  Reporting the same run twice yields the
+    * same key, while a new run written to a reused result directory
+    * does not.</p>
+    *
+    * @return the run key
+    */
+   private String runKey() {
+      MessageDigest md;
+
+      try {
+         md = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+         /* Every JRE is required to provide SHA-1. */
+         throw new RuntimeException(e);
+      }
+
+      for (File xml: this.xmlFiles) {
+         String id = xml.getName() + "\0" + xml.length() + "\0" +
+            xml.lastModified() + "\0";
+         try {
+            md.update(id.getBytes("UTF-8"));
+         } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
          }
       }
 
-      return result;
+      StringBuilder sb = new StringBuilder(40);
+      for (byte b: md.digest()) {
+         sb.append(String.format("%02x", b));
+      }
+
+      return sb.toString();
    }
 
-   private HashMap<String, Object> getSuiteData(Document doc) {
-      HashMap<String, Object> result = new HashMap<String, Object>();
-      int passed = 0, failed = 0, blocked = 0, asserts = 0, assertsF = 0, errors = 0, exceptions = 0, wd = 0, total = 0;
-      boolean truncated;
-      String runtime = "";
-      String suiteName = getSuiteName(doc);
-
-      passed = getAmtPassed(doc);
-      blocked = getAmtBlocked(doc);
-      failed = getAmtFailed(doc);
-      wd = getAmtwatchdog(doc);
-      asserts = getAmtAsserts(doc);
-      assertsF = getAmtAssertsF(doc);
-      exceptions = getAmtExceptions(doc);
-      errors = getAmtErrors(doc);
-      total = assertsF + exceptions + errors;
-      runtime = getRunTime(doc);
-      truncated = getTruncated(doc);
-
-      result.put("passed", passed);
-      result.put("blocked", blocked);
-      result.put("failed", failed);
-      result.put("wd", wd);
-      result.put("asserts", asserts);
-      result.put("assertsF", assertsF);
-      result.put("exceptions", exceptions);
-      result.put("errors", errors);
-      result.put("total", total);
-      result.put("runtime", runtime);
-      result.put("suitename", suiteName);
-      result.put("testlogs", this.getTestLogs(doc));
-      result.put("truncated", truncated);
+   /**
+    * Write the summary of a run that is still in progress.
+    *
+    * <p>Only summary.html is written.  Suite totals come from the
+    * tests run so far, and the suite and test reports are written by
+    * {@link VddLiveReporter} as each test finishes.  While the run is
+    * in progress the page reloads itself periodically.</p>
+    *
+    * @param suites   totals of the suites run so far
+    * @param refresh  seconds between page reloads, or 0 for none
+    */
+   void generateLiveReport(List<VddSuiteSummary> suites, int refresh) {
+      TreeMap<String, HashMap<String, Object>> list =
+         new TreeMap<String, HashMap<String, Object>>();
+      String header = generateHTMLHeader();
 
-      return result;
+      if (refresh > 0) {
+         header = header.replaceFirst("<html>", "<html>\n<meta http-equiv=\"refresh\" content=\"" + refresh + "\">");
+      }
+      repFile.print(header);
+
+      for (VddSuiteSummary s: suites) {
+         HashMap<String, Object> suiteData = addSuite(s);
+         list.put(suiteData.get("suitename").toString(), suiteData);
+      }
+
+      for (Map.Entry<String, HashMap<String, Object>> e: list.entrySet()) {
+         repFile.print(generateTableRow(e.getKey(), e.getValue()));
+      }
+
+      repFile.print(generateHTMLFooter());
+      repFile.print(generateTimingsTable());
+      repFile.print("\n</body>\n</html>\n");
+      repFile.close();
    }
 
    /**
@@ -339,7 +444,6 @@ public class VddSummaryReporter {
     * @return a single row for output to summary.html
     */
 
-   @SuppressWarnings("unchecked")
    private String generateTableRow(String suiteName,
                                    HashMap<String, Object> data) {
       int passed        = (Integer)data.get("passed");
@@ -413,17 +517,66 @@ public class VddSummaryReporter {
       /* Row epilogue */
       html += "</tr>";
 
-      /*
-       * Generate the suite report.
-       */
+      return html;
+   }
+
+   /**
+    * Generate the report for one suite.
+    *
+    * @param suiteName  name of the test suite being processed
+    * @param data       data for this test suite
+    */
+
+   @SuppressWarnings("unchecked")
+   private void generateSuiteReport(String suiteName,
+                                    HashMap<String, Object> data) {
       ArrayList<HashMap<String, String>> logs =
          (ArrayList<HashMap<String, String>>)data.get("testlogs");
       VddSuiteReporter reporter = new VddSuiteReporter(suiteName,
-                                                       this.basedir, logs);
+                                                       this.basedir, logs,
+                                                       this.pool,
+                                                       this.manifest);
       reporter.generateReport();
-      this.issues.appendIssues(reporter.getIssues());
+      this.suiteReporters.add(reporter);
+   }
 
-      return html;
+   /**
+    * Add a suite's totals to the run totals.
+    *
+    * @param s  the parsed suite file
+    * @return data for this test suite
+    */
+   private HashMap<String, Object> addSuite(VddSuiteSummary s) {
+      HashMap<String, Object> result = new HashMap<String, Object>();
+
+      result.put("passed", s.passed);
+      result.put("blocked", s.blocked);
+      result.put("failed", s.failed);
+      result.put("wd", s.watchdog);
+      result.put("asserts", s.asserts);
+      result.put("assertsF", s.assertsF);
+      result.put("exceptions", s.exceptions);
+      result.put("errors", s.errors);
+      result.put("total", s.assertsF + s.exceptions + s.errors);
+      result.put("runtime", s.getRunTime());
+      result.put("suitename", s.suiteName);
+      result.put("testlogs", s.testLogs);
+      result.put("truncated", s.truncated);
+
+      this.passedTests += s.passed;
+      this.failedTests += s.failed;
+      this.blockedTests += s.blocked;
+      this.watchdog += s.watchdog;
+      this.passedAsserts += s.asserts;
+      this.failedAsserts += s.assertsF;
+      this.exceptions += s.exceptions;
+      this.errors += s.errors;
+      this.hours += s.hours;
+      this.minutes += s.minutes;
+      this.seconds += s.seconds;
+      this.timings.merge(s.timings);
+
+      return result;
    }
 
    /**
@@ -508,397 +661,6 @@ public class VddSummaryReporter {
       return footer;
    }
 
-   /**
-    * Deal with log files that are missing end tags.
-    *
-    * <p>This is called when xml processing has failed, and that
-    * only happens when the datafile ends prematurely.  From this
-    * point of view, there are three scenarios:</p>
-    *
-    * <ol>
-    *   <li>File is empty</li>
-    *   <li>File is correctly formed xml, but missing end tags</li>
-    *   <li>File ends mid-tag</li>
-    * </ol>
-    *
-    * <p>For the first case, we create an almost empty file with
-    * the bare minimum of tags and use the file name for the
-    * suite file name.  This should be noticable by the user as a
-    * problem.</p>
-    *
-    * <p>For the second and third, we find the last valid entry
-    * and cut the file off there, then add terminating tags.</p>
-    *
-    * <p>For all cases, a &lt;truncated/&gt; tag is added.  This
-    * tells the report generation engine to highlight this file's
-    * entry so the user will be incited to look into the problem
-    * (e.g. did the test machine crash midway through the
-    * test?)</p>
-    *
-    * @param xml a log file that has already failed parsing
-    * @return an InputSource with added end tags suitable for re-parsing
-    */
-
-   private InputSource endTagHack(File xml) throws Exception {
-      if (xml.length() >= (2L << 31)) {
-         /*
-          * The CharBuffer below uses an int for its
-          * buffer size.  This limits us to files less
-          * than 2GB.  That's probably the least of the
-          * problems if this code is getting called,
-          * but make sure here it's flagged.  Should
-          * the user notice and file a bug, this code
-          * can be revisited.
-          */
-         System.out.println("(!)Warning: File > 2GB (" + xml.length() + "). Further truncation will occur.");
-      }
-      CharBuffer cbuf = CharBuffer.allocate((int)xml.length());
-      FileReader f = new FileReader(xml);
-      f.read(cbuf);
-      cbuf.rewind();
-
-      /* First case */
-      if (cbuf.length() == 0) {
-         String contents = "<data><truncated/><suite><suitefile>" + xml.getName() + "</suitefile></suite></data>\n";
-         return new InputSource(new StringReader(contents));
-      }
-
-      /* Second and third cases. */
-      String mungedXml = cbuf.toString();
-
-      /* Scan backward through the file, looking for an appropriate end tag. */
-      String endTags[] = {"</test>", "</suite>", "</data>"}; // Yes, the order is significant.
-      for (int k = cbuf.length() - 1; k >= 0; k--) {
-         if (cbuf.charAt(k) == '<') {
-            Boolean foundEndTag = false;
-            for (int t = 0; t < endTags.length; t++) {
-               if (mungedXml.regionMatches(k, endTags[t], 0, endTags[t].length())) {
-                  foundEndTag = true;
-                  mungedXml = mungedXml.substring(0, k);
-               }
-               if (foundEndTag) {
-                  if (t == 2) {
-                     mungedXml += "<truncated/>";
-                  }
-                  mungedXml += endTags[t];
-               }
-            }
-            if (foundEndTag) {
-               break;
-            }
-         }
-      }
-
-      return new InputSource(new StringReader(mungedXml));
-   }
-
-   private HashMap<String, Object> parseXMLFile(File xml) throws Exception {
-      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-      HashMap<String, Object> result = new HashMap<String, Object>();
-      DocumentBuilder db = dbf.newDocumentBuilder();
-      db.setErrorHandler(new VddErrorHandler());
-
-      try {
-         dom = db.parse(xml);
-      } catch(SAXParseException e) {
-         System.out.println("(!)Error parsing log file (" + e.getMessage() + ").  Retrying with end tag hack...");
-         InputSource is = endTagHack(xml);
-         dom = db.parse(is);
-         System.out.println("(*)Success!");
-      }
-
-      result = getSuiteData(dom);
-      return result;
-   }
-
-   /**
-    * get the number of tests that passed within this suite document
-    * @ param d - the Document containing suite run data
-    * @ return the number of tests that passed
-    *
-    */
-   private int getAmtPassed(Document d) {
-      int n = 0;
-      Element el;
-      NodeList nl = d.getElementsByTagName("result");
-      boolean isrestart = false;
-      boolean islibfile = false;
-
-      for (int i = 0; i < nl.getLength(); i ++) {
-         el = (Element)nl.item(i);
-         if (el.getFirstChild().getNodeValue().compareToIgnoreCase("Passed") == 0) {
-            islibfile = isLibTest(nl.item(i));
-            isrestart = isRestart(nl.item(i));
-
-            if (isrestart) {
-               continue;
-            }
-
-            if (islibfile) {
-               continue;
-            }
-
-            n ++;
-         }
-      }
-
-      //global passedTests variable
-      passedTests += n;
-      return n;
-   }
-
-   /**
-    * get the number of tests that failed within this suite document
-    * @ param d - the Document containing suite run data
-    * @ return the number of tests that failed
-    *
-    */
-   private int getAmtFailed(Document d) {
-      int n = 0;
-      Element el;
-      boolean isrestart = false;
-      boolean isblocked = false;
-      NodeList nl = d.getElementsByTagName("result");
-      boolean islibfile = false;
-
-      for (int i = 0; i < nl.getLength(); i ++){
-         el = (Element)nl.item(i);
-         if (el.getFirstChild().getNodeValue().compareToIgnoreCase("Failed") == 0) {
-            isrestart = isRestart(nl.item(i));
-            isblocked = isBlocked(nl.item(i));
-            islibfile = isLibTest(nl.item(i));
-            if (isrestart) {
-               continue;
-            }
-
-            if (isblocked) {
-               continue;
-            }
-
-            if (islibfile) {
-               continue;
-            }
-
-            n ++;
-         }
-      }
-
-      //global failedTests variable
-      failedTests += n;
-      return n;
-   }
-
-   /**
-    * get the number of tests that was blocked within this suite document
-    * @ param d - the Document containing suite run data
-    * @ return the number of tests that was blocked
-    *
-    */
-   private int getAmtBlocked(Document d) {
-      int n = 0;
-      Element el;
-      boolean isrestart = false;
-      boolean islibfile = false;
-      NodeList nl = d.getElementsByTagName("blocked");
-
-      for (int i = 0; i < nl.getLength(); i ++) {
-         el = (Element)nl.item(i);
-         if (el.getFirstChild().getNodeValue().compareToIgnoreCase("1") == 0) {
-            isrestart = isRestart(nl.item(i));
-            islibfile = isLibTest(nl.item(i));
-            if (isrestart) {
-               continue;
-            }
-
-            if (islibfile) {
-               continue;
-            }
-
-            n ++;
-         }
-      }
-
-      //global blockedTests variable
-      blockedTests += n;
-      return n;
-   }
-
-   private ArrayList<HashMap<String, String>> getTestLogs(Document d) {
-      ArrayList<HashMap<String, String>> result = new ArrayList<HashMap<String,String>>();
-      NodeList nodes = d.getElementsByTagName("test");
-
-      for (int i = 0; i <= nodes.getLength() -1; i++) {
-         Node currNode = nodes.item(i);
-         HashMap<String, String> newHash = new HashMap<String, String>();
-         NodeList kids = currNode.getChildNodes();
-
-         for (int x = 0; x <= kids.getLength() -1; x++) {
-            Node kidNode = kids.item(x);
-            if (kidNode.getNodeName().contains("testlog")) {
-               newHash.put(kidNode.getNodeName(), kidNode.getTextContent());
-            } else if (kidNode.getNodeName().contains("isrestart")) {
-               newHash.put(kidNode.getNodeName(), kidNode.getTextContent().toLowerCase());
-            }
-         }
-         result.add(newHash);
-      }
-
-      return result;
-   }
-
-   /**
-    * get the number of assertions that passed within this suite document
-    * @ param d - the Document containing suite run data
-    * @ return the number of passed assertions
-    *
-    */
-   private int getAmtAsserts(Document d) {
-      int n = 0;
-      Element el;
-      boolean isrestart = false;
-      NodeList nl = d.getElementsByTagName("passedasserts");
-
-      for (int i = 0; i < nl.getLength(); i ++) {
-         el = (Element)nl.item(i);
-         if (Integer.parseInt(el.getFirstChild().getNodeValue()) > 0){
-            isrestart = isRestart(nl.item(i));
-            if (isrestart) {
-               //continue;
-            }
-            n += Integer.parseInt(el.getFirstChild().getNodeValue());
-         }
-      }
-      //global passedAsserts
-      passedAsserts += n;
-      return n;
-   }
-
-   /**
-    * get the number of assertions that failed within this suite document
-    * @ param d - the Document containing suite run data
-    * @ return the number of failed assertions
-    *
-    */
-   private int getAmtAssertsF(Document d) {
-      int n = 0;
-      Element el;
-      boolean isrestart = false;
-      NodeList nl = d.getElementsByTagName("failedasserts");
-
-      for (int i = 0; i < nl.getLength(); i ++) {
-         el = (Element)nl.item(i);
-         if (Integer.parseInt(el.getFirstChild().getNodeValue()) > 0) {
-            isrestart = isRestart(nl.item(i));
-            if (isrestart) {
-            //   continue;
-            }
-            n += Integer.parseInt(el.getFirstChild().getNodeValue());
-         }
-      }
-      //global failedAsserts
-      failedAsserts += n;
-      return n;
-   }
-
-   /**
-    * get the number of watchdogs within this suite document
-    * @ param d - the Document containing suite run data
-    * @ return the number of watchdogs
-    *
-    */
-   private int getAmtwatchdog(Document d) {
-      int n = 0;
-      Element el;
-      boolean isrestart = false;
-      NodeList nl = d.getElementsByTagName("watchdog");
-
-      for (int i = 0; i < nl.getLength(); i ++) {
-         el = (Element)nl.item(i);
-         if (Integer.parseInt(el.getFirstChild().getNodeValue()) > 0) {
-            isrestart = isRestart(nl.item(i));
-            if (isrestart) {
-            //   continue;
-            }
-            n += Integer.parseInt(el.getFirstChild().getNodeValue());
-         }
-      }
-
-      watchdog += n;
-      return n;
-   }
-
-   /**
-    * get the number of exceptions within this suite document
-    * @ param d - the Document containing suite run data
-    * @ return the number of exceptions
-    *
-    */
-   private int getAmtExceptions(Document d) {
-      int n = 0;
-      Element el;
-      boolean isrestart = false;
-      NodeList nl = d.getElementsByTagName("exceptions");
-
-      for (int i = 0; i < nl.getLength(); i ++) {
-         el = (Element)nl.item(i);
-         if (Integer.parseInt(el.getFirstChild().getNodeValue()) > 0) {
-            isrestart = isRestart(nl.item(i));
-            if (isrestart) {
-            //   continue;
-            }
-            n += Integer.parseInt(el.getFirstChild().getNodeValue());
-         }
-      }
-      //global exceptions
-      exceptions += n;
-      return n;
-   }
-
-   private int getAmtErrors(Document d) {
-      int n = 0;
-      Element el;
-      boolean isrestart = false;
-      NodeList nl = d.getElementsByTagName("errors");
-      for (int i = 0; i < nl.getLength(); i ++) {
-         el = (Element)nl.item(i);
-         if (Integer.parseInt(el.getFirstChild().getNodeValue()) > 0) {
-            isrestart = isRestart(nl.item(i));
-            if (isrestart) {
-            //   continue;
-            }
-            n += Integer.parseInt(el.getFirstChild().getNodeValue());
-         }
-      }
-      //global errors
-      errors += n;
-      return n;
-   }
-
-   /**
-    * calculates the running time fromt a suite xml file, and return it in a html-friendly format
-    * @param d - document to get time data from
-    * @return - total run time for this suite test in String
-    */
-   private String getRunTime(Document d) {
-      String  temp;
-      int h = 0, m = 0, s = 0;
-      Element el;
-      NodeList nl = d.getElementsByTagName("totaltesttime");
-
-      for (int i = 0; i < nl.getLength(); i ++) {
-         el = (Element)nl.item(i);
-         temp = el.getFirstChild().getNodeValue();
-         h += Integer.parseInt(temp.substring(0, temp.indexOf(":")));
-         m += Integer.parseInt(temp.substring(2, temp.lastIndexOf(":")));
-         s += Integer.parseInt(temp.substring(temp.lastIndexOf(":")+1, temp.indexOf(".")));
-      }
-
-      this.hours += h;
-      this.minutes += m;
-      this.seconds += s;
-      return printTotalTime(h, m , s);
-   }
-
    /**
     * formats and returns a correct String representation from inputs of hours, minutes and seconds
     * @param hours
@@ -933,28 +695,60 @@ public class VddSummaryReporter {
    }
 
    /**
-    * get the name of the suite, without extension
-    * @param d
-    * @return
-    */
-   private String getSuiteName(Document d) {
-      String name = "";
-      NodeList nl = d.getElementsByTagName("suitefile");
-
-      if (nl != null && nl.getLength() > 0) {
-         Element el = (Element)nl.item(0);
-         name = el.getFirstChild().getNodeValue();
-      }
-
-      name = name.substring(0, name.indexOf("."));
-      return name;
-   }
-
-   /**
-    * Get whether the log file was truncated
+    * Generate the table of the slowest event types and phases.
+    *
+    * <p>Rows are ordered by total time spent across all suites.
+    * Times are shown in milliseconds.</p>
+    *
+    * @return html table, or an empty string if no timings were recorded
     */
-   private boolean getTruncated(Document d) {
-      NodeList nl = d.getElementsByTagName("truncated");
-      return nl.getLength() > 0;
+   private String generateTimingsTable() {
+      if (this.timings.isEmpty()) {
+         return "";
+      }
+
+      TreeMap<String, LatencyHistogram> hists = this.timings.getHistograms();
+      ArrayList<String> keys = this.timings.getSlowest();
+      StringBuilder html = new StringBuilder();
+
+      html.append("\n<hr></hr>\n<table>\n");
+      html.append("<tr>\n <td class=\"td_header_master\" colspan=\"7\">" +
+                  "Slowest Events (times in ms)</td>\n</tr>\n");
+      html.append("<tr>\n" +
+                  " <td class=\"td_header_sub\">Event</td>\n" +
+                  " <td class=\"td_header_sub\">Phase</td>\n" +
+                  " <td class=\"td_header_sub\">Count</td>\n" +
+                  " <td class=\"td_header_sub\">Total</td>\n" +
+                  " <td class=\"td_header_sub\">p50</td>\n" +
+                  " <td class=\"td_header_sub\">p95</td>\n" +
+                  " <td class=\"td_header_sub\">Max</td>\n" +
+                  "</tr>\n");
+
+      for (int i = 0; i < keys.size() && i < SLOWEST_EVENTS; i++) {
+         String key = keys.get(i);
+         String[] tp = key.split("/", 2);
+         LatencyHistogram h = hists.get(key);
+
+         html.append("<tr class=\"unhighlight\"" +
+                     " onmouseover=\"this.className='highlight'\"" +
+                     " onmouseout=\"this.className='unhighlight'\">\n");
+         html.append("   <td class=\"td_file_data\">" + tp[0] + "</td>\n");
+         html.append("   <td class=\"td_file_data\">" + tp[1] + "</td>\n");
+         html.append("   <td class=\"td_time_data\">" + h.getCount() +
+                     "</td>\n");
+         html.append(String.format("   <td class=\"td_time_data\">%.1f</td>\n",
+                                   h.getTotal() / 1000.0));
+         html.append(String.format("   <td class=\"td_time_data\">%.1f</td>\n",
+                                   h.getValueAtPercentile(50) / 1000.0));
+         html.append(String.format("   <td class=\"td_time_data\">%.1f</td>\n",
+                                   h.getValueAtPercentile(95) / 1000.0));
+         html.append(String.format("   <td class=\"td_time_data\">%.1f</td>\n",
+                                   h.getMax() / 1000.0));
+         html.append("</tr>\n");
+      }
+
+      html.append("</table>\n");
+
+      return html.toString();
    }
 }
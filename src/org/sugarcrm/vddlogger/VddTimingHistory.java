@@ -0,0 +1,541 @@
+/*
+Copyright 2011-2012 SugarCRM Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+Please see the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.sugarcrm.vddlogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Test durations across report runs.
+ *
+ * <p>The history is an append-only file holding one block per run.
+ * Test names are stored once, the first time they are seen, and each
+ * block after that holds only the run's new names followed by two
+ * columns: test IDs and durations in milliseconds.  A run of a
+ * thousand tests therefore costs about 8KB.</p>
+ *
+ * <p>Each block is preceded by its length and written with a single
+ * write.  A block cut short by a crash is dropped when the history is
+ * loaded and overwritten by the next append.  Converting the same
+ * result directory again does not add a second block for it.</p>
+ *
+ * <p>For each test, the durations from the last {@link #WINDOW}
+ * earlier runs give its median and 95th percentile.  A test is
+ * reported as a regression when this run's duration is above its
+ * 95th percentile and well above its median.</p>
+ */
+class VddTimingHistory {
+
+   static final String REPORT = "trends.html";
+
+   /**
+    * Number of earlier runs used for a test's percentiles.
+    */
+   static final int WINDOW = 50;
+
+   /**
+    * Earlier runs a test needs before it can be called a regression.
+    */
+   private static final int MIN_RUNS = 5;
+
+   /**
+    * A regression must take this much longer than the median...
+    */
+   private static final double REGRESSION_RATIO = 1.5;
+
+   /**
+    * ...and at least this many milliseconds longer.
+    */
+   private static final int REGRESSION_MIN_MILLIS = 1000;
+
+   /**
+    * Number of rows in the slowdowns table.
+    */
+   private static final int SLOWDOWNS = 50;
+
+   private static final int MAGIC = 0x56444454;   /* "VDDT" */
+   private static final int VERSION = 1;
+   private static final String HTML_HEADER_RESOURCE = "issues-header.txt";
+
+   private File file;
+   private String runKey;
+   private boolean recorded = false;
+   private boolean writable = true;
+   private long validLength = 0;
+   private int runs = 0;
+   private ArrayList<String> names = new ArrayList<String>();
+   private HashMap<String, Integer> ids = new HashMap<String, Integer>();
+   private HashMap<Integer, Samples> samples = new HashMap<Integer, Samples>();
+
+   /**
+    * A test's durations in its most recent runs.
+    */
+   private static class Samples {
+      int[] ring = new int[WINDOW];
+      int count = 0;
+
+      void add(int millis) {
+         this.ring[this.count % WINDOW] = millis;
+         this.count++;
+      }
+
+      int[] sorted() {
+         int[] s = Arrays.copyOf(this.ring, Math.min(this.count, WINDOW));
+         Arrays.sort(s);
+         return s;
+      }
+   }
+
+   /**
+    * One test's duration in this run against its history.
+    */
+   private static class Trend {
+      String test;
+      int millis;
+      int runs;
+      int p50;
+      int p95;
+      boolean regression;
+   }
+
+
+   private VddTimingHistory(File file, String runKey) {
+      this.file = file;
+      this.runKey = runKey;
+   }
+
+
+   /**
+    * Load a timing history.
+    *
+    * <p>Durations already recorded for <code>runKey</code> are not
+    * counted as history, so that converting a run twice does not
+    * compare it against itself.</p>
+    *
+    * @param file    the history file, created if it does not exist
+    * @param runKey  identifies the run being reported
+    * @return the history
+    */
+   public static VddTimingHistory load(File file, String runKey) {
+      VddTimingHistory h = new VddTimingHistory(file, runKey);
+
+      if (!file.exists()) {
+         return h;
+      }
+
+      try {
+         DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+         try {
+            h.read(in);
+         } finally {
+            in.close();
+         }
+      } catch (IOException e) {
+         System.out.println("(W)Not using timing history " + file + ": " + e);
+         h.writable = false;
+      }
+
+      System.out.printf("(*)Timing history: %d runs, %d tests.\n",
+                        h.runs, h.names.size());
+
+      return h;
+   }
+
+
+   /**
+    * Record this run's test durations.
+    *
+    * @param time    when the run took place
+    * @param suites  the run's suites
+    */
+   public void addRun(long time, List<VddSuiteSummary> suites) {
+      if (!this.writable) {
+         return;
+      }
+      if (this.recorded) {
+         System.out.println("(*)Run already in timing history, not adding it again.");
+         return;
+      }
+
+      try {
+         append(encodeRun(time, suites));
+      } catch (IOException e) {
+         System.out.println("(W)Failed to update timing history " +
+                            this.file + ": " + e);
+      }
+   }
+
+
+   /**
+    * Write trends.html comparing this run against the history.
+    *
+    * @param dir     the result directory
+    * @param suites  the run's suites
+    */
+   public void writeReport(File dir, List<VddSuiteSummary> suites) {
+      ArrayList<Trend> trends = getTrends(suites);
+      int regressions = 0;
+
+      for (Trend t: trends) {
+         if (t.regression) {
+            regressions++;
+            System.out.printf("(W)Slower than usual: %s took %s, median %s.\n",
+                              t.test, formatMillis(t.millis),
+                              formatMillis(t.p50));
+         }
+      }
+
+      File report = new File(dir, REPORT);
+
+      try {
+         BufferedWriter out =
+            new BufferedWriter(new OutputStreamWriter(new FileOutputStream(report),
+                                                      "UTF-8"));
+         try {
+            writeHeader(out);
+            out.write(String.format("<p>%d tests compared against up to %d" +
+                                    " earlier runs of %d recorded.  %d" +
+                                    " regressions.</p>\n", trends.size(),
+                                    WINDOW, this.runs, regressions));
+            writeTable(out, trends);
+            out.write("</body></html>\n");
+         } finally {
+            out.close();
+         }
+      } catch (IOException e) {
+         System.out.printf("(!)Error: Failed trying to write file: '%s'!\n",
+                           report);
+         return;
+      }
+
+      System.out.printf("(*)Wrote %s: %d regressions.\n", report, regressions);
+   }
+
+
+   /**
+    * Read all complete blocks of the history.
+    */
+   private void read(DataInputStream in) throws IOException {
+      if (this.file.length() == 0) {
+         return;
+      }
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+         throw new IOException("not a timing history");
+      }
+      this.validLength = 8;
+
+      while (true) {
+         byte[] block;
+
+         try {
+            int len = in.readInt();
+            if (len < 0 || len > this.file.length() - this.validLength - 4) {
+               /* Corrupt length, treated like a truncated run. */
+               throw new EOFException();
+            }
+            block = new byte[len];
+            in.readFully(block);
+         } catch (EOFException e) {
+            if (this.validLength < this.file.length()) {
+               System.out.println("(W)Dropping incomplete last run from timing history.");
+            }
+            return;
+         }
+
+         readRun(new DataInputStream(new ByteArrayInputStream(block)));
+         this.validLength += 4 + block.length;
+      }
+   }
+
+
+   /**
+    * Read one run's block.
+    */
+   private void readRun(DataInputStream in) throws IOException {
+      String key = in.readUTF();
+      in.readLong();
+
+      int n = in.readInt();
+      for (int k = 0; k < n; k++) {
+         addName(in.readUTF());
+      }
+
+      n = in.readInt();
+      if (n < 0 || n > in.available() / 8) {
+         throw new IOException("bad test count " + n);
+      }
+      int[] tests = new int[n];
+      for (int k = 0; k < n; k++) {
+         tests[k] = in.readInt();
+         if (tests[k] < 0 || tests[k] >= this.names.size()) {
+            throw new IOException("bad test ID " + tests[k]);
+         }
+      }
+
+      int[] millis = new int[n];
+      for (int k = 0; k < n; k++) {
+         millis[k] = in.readInt();
+      }
+
+      if (key.equals(this.runKey)) {
+         this.recorded = true;
+         return;
+      }
+
+      for (int k = 0; k < n; k++) {
+         Samples s = this.samples.get(tests[k]);
+         if (s == null) {
+            s = new Samples();
+            this.samples.put(tests[k], s);
+         }
+         s.add(millis[k]);
+      }
+
+      this.runs++;
+   }
+
+
+   /**
+    * Encode this run as a block, adding new test names.
+    */
+   private byte[] encodeRun(long time, List<VddSuiteSummary> suites)
+      throws IOException {
+      ArrayList<String> tests = new ArrayList<String>();
+      ArrayList<Integer> millis = new ArrayList<Integer>();
+
+      for (VddSuiteSummary s: suites) {
+         for (VddSuiteSummary.TestTime t: s.testTimes) {
+            tests.add(testName(s, t));
+            millis.add(t.millis);
+         }
+      }
+
+      int first = this.names.size();
+      int[] testIds = new int[tests.size()];
+      for (int k = 0; k < testIds.length; k++) {
+         testIds[k] = addName(tests.get(k));
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+
+      out.writeUTF(this.runKey);
+      out.writeLong(time);
+      out.writeInt(this.names.size() - first);
+      for (int k = first; k < this.names.size(); k++) {
+         out.writeUTF(this.names.get(k));
+      }
+      out.writeInt(testIds.length);
+      for (int id: testIds) {
+         out.writeInt(id);
+      }
+      for (int m: millis) {
+         out.writeInt(m);
+      }
+      out.close();
+
+      return bytes.toByteArray();
+   }
+
+
+   /**
+    * Append a block to the history, replacing any incomplete block.
+    */
+   private void append(byte[] block) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+
+      if (this.validLength == 0) {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+      }
+      out.writeInt(block.length);
+      out.write(block);
+      out.close();
+
+      RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+
+      try {
+         raf.setLength(this.validLength);
+         raf.seek(this.validLength);
+         raf.write(bytes.toByteArray());
+      } finally {
+         raf.close();
+      }
+
+      this.validLength += bytes.size();
+      this.recorded = true;
+   }
+
+
+   /**
+    * Compare each test's duration in this run with its history.
+    */
+   private ArrayList<Trend> getTrends(List<VddSuiteSummary> suites) {
+      ArrayList<Trend> trends = new ArrayList<Trend>();
+
+      for (VddSuiteSummary s: suites) {
+         for (VddSuiteSummary.TestTime t: s.testTimes) {
+            Trend trend = new Trend();
+            trend.test = testName(s, t);
+            trend.millis = t.millis;
+
+            Integer id = this.ids.get(trend.test);
+            Samples history = (id == null) ? null : this.samples.get(id);
+            if (history == null) {
+               continue;
+            }
+
+            int[] sorted = history.sorted();
+            trend.runs = sorted.length;
+            trend.p50 = percentile(sorted, 50);
+            trend.p95 = percentile(sorted, 95);
+            trend.regression = (trend.runs >= MIN_RUNS &&
+                                trend.millis > trend.p95 &&
+                                trend.millis > trend.p50 * REGRESSION_RATIO &&
+                                trend.millis - trend.p50 >= REGRESSION_MIN_MILLIS);
+            trends.add(trend);
+         }
+      }
+
+      Collections.sort(trends, new Comparator<Trend>() {
+         public int compare(Trend a, Trend b) {
+            long da = a.millis - a.p50;
+            long db = b.millis - b.p50;
+            if (a.regression != b.regression) {
+               return a.regression ? -1 : 1;
+            }
+            return (da != db) ? ((da > db) ? -1 : 1) : a.test.compareTo(b.test);
+         }
+      });
+
+      return trends;
+   }
+
+
+   /**
+    * Write the slowdowns table.
+    */
+   private void writeTable(BufferedWriter out, ArrayList<Trend> trends)
+      throws IOException {
+      out.write("<table>\n");
+      out.write("<tr>\n\t<td class=\"td_header_master\" colspan=\"6\">Slowest compared to their history:</td>\n</tr>\n");
+      out.write("<tr>\n\t<td class=\"td_header_sub\">Test:</td>\n" +
+                "\t<td class=\"td_header_count\">Runs:</td>\n" +
+                "\t<td class=\"td_header_count\">Median:</td>\n" +
+                "\t<td class=\"td_header_count\">95th:</td>\n" +
+                "\t<td class=\"td_header_count\">This run:</td>\n" +
+                "\t<td class=\"td_header_count\">Change:</td>\n</tr>\n");
+
+      for (int k = 0; k < trends.size() && k < SLOWDOWNS; k++) {
+         Trend t = trends.get(k);
+         String change = (t.p50 == 0) ? "" :
+            String.format("%+d%%", Math.round(100.0 * (t.millis - t.p50) / t.p50));
+
+         out.write("<tr class=\"unhighlight\" onmouseout=\"this.className='unhighlight'\" onmouseover=\"this.className='highlight'\">\n");
+         out.write(String.format("\t<td class=\"td_file_data\">%s%s</td>\n",
+                                 t.test.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"),
+                                 t.regression ? " <font color=\"#FF0000\">(slower)</font>" : ""));
+         out.write(String.format("\t<td class=\"td_count_data\">%d</td>\n", t.runs));
+         out.write(String.format("\t<td class=\"td_count_data\">%s</td>\n", formatMillis(t.p50)));
+         out.write(String.format("\t<td class=\"td_count_data\">%s</td>\n", formatMillis(t.p95)));
+         out.write(String.format("\t<td class=\"td_count_data\">%s</td>\n", formatMillis(t.millis)));
+         out.write(String.format("\t<td class=\"td_count_data\">%s</td>\n", change));
+         out.write("</tr>\n");
+      }
+
+      out.write("</table>\n");
+   }
+
+
+   /**
+    * Copy the report header.
+    */
+   private void writeHeader(BufferedWriter out) throws IOException {
+      InputStream stream = getClass().getResourceAsStream(HTML_HEADER_RESOURCE);
+      if (stream == null) {
+         out.write("<html>\n<body>\n");
+         return;
+      }
+
+      BufferedReader in = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+      String line;
+
+      while ((line = in.readLine()) != null) {
+         out.write(line + "\n");
+      }
+      in.close();
+   }
+
+
+   /**
+    * Add a test name to the dictionary.
+    *
+    * @return the test's ID
+    */
+   private int addName(String name) {
+      Integer id = this.ids.get(name);
+
+      if (id == null) {
+         id = this.names.size();
+         this.names.add(name);
+         this.ids.put(name, id);
+      }
+
+      return id;
+   }
+
+
+   private static String testName(VddSuiteSummary s, VddSuiteSummary.TestTime t) {
+      return s.suiteName + ": " + t.testFile;
+   }
+
+
+   /**
+    * Nearest-rank percentile of sorted values.
+    */
+   private static int percentile(int[] sorted, int p) {
+      int rank = (int)Math.ceil(p / 100.0 * sorted.length);
+      return sorted[Math.max(rank, 1) - 1];
+   }
+
+
+   private static String formatMillis(int millis) {
+      return String.format("%d.%03ds", millis / 1000, millis % 1000);
+   }
+}
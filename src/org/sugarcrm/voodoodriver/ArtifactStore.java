@@ -0,0 +1,185 @@
+/*
+ * Copyright 2011-2012 SugarCRM Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You
+ * may may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  Please see the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package org.sugarcrm.voodoodriver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Content-addressed store for saved HTML pages and screenshots.
+ *
+ * <p>A single ArtifactStore is shared by every test in a VDD run.
+ * Each artifact is stored once under the SHA-1 hash of its contents,
+ * so a page or screenshot that recurs across tests (login pages,
+ * error pages, etc.) only takes up disk space once.  Text artifacts
+ * are gzip compressed.  The store lives in the <code>artifacts</code>
+ * directory at the top of the result directory and is laid out
+ * as:</p>
+ *
+ * <pre>
+ *    artifacts/ab/ab12...ef.html.gz
+ *    artifacts/cd/cd34...01.png
+ * </pre>
+ *
+ * <p>Log files refer to artifacts by path.  The report generator
+ * resolves these references relative to the result directory.</p>
+ */
+
+public class ArtifactStore {
+
+   /**
+    * Name of the artifact directory within the result directory.
+    */
+
+   public final static String ARTIFACT_DIR = "artifacts";
+
+   /**
+    * Root directory of the store.
+    */
+
+   private File root;
+
+   /**
+    * Number of artifacts written.
+    */
+
+   private int stored = 0;
+
+   /**
+    * Number of artifacts that were already present in the store.
+    */
+
+   private int deduplicated = 0;
+
+
+   /**
+    * Create an ArtifactStore in the specified result directory.
+    *
+    * @param resultDir  the top level result directory for this run
+    */
+
+   public ArtifactStore(String resultDir) {
+      this.root = new File(resultDir, ARTIFACT_DIR);
+   }
+
+
+   /**
+    * Store an artifact.
+    *
+    * @param data      the artifact's contents
+    * @param ext       file extension (without the dot)
+    * @param compress  whether to gzip the artifact
+    * @return the file containing the artifact
+    * @throws IOException if the artifact could not be written
+    */
+
+   public synchronized File put(byte[] data, String ext, boolean compress)
+      throws IOException {
+      String hash = hash(data);
+      File dir = new File(this.root, hash.substring(0, 2));
+      File artifact = new File(dir, hash + "." + ext + (compress ? ".gz" : ""));
+
+      if (artifact.exists()) {
+         this.deduplicated += 1;
+         return artifact;
+      }
+
+      if (!dir.exists() && !dir.mkdirs()) {
+         throw new IOException("Unable to create artifact directory " + dir);
+      }
+
+      /*
+       * Write to a temporary file and rename it into place so a
+       * partially written artifact is never mistaken for a complete
+       * one.
+       */
+      File tmp = new File(dir, hash + ".tmp");
+      OutputStream out = new FileOutputStream(tmp);
+      try {
+         if (compress) {
+            out = new GZIPOutputStream(out);
+         }
+         out.write(data);
+      } finally {
+         out.close();
+      }
+
+      if (!tmp.renameTo(artifact)) {
+         tmp.delete();
+         if (!artifact.exists()) {
+            throw new IOException("Unable to create artifact " + artifact);
+         }
+      }
+
+      this.stored += 1;
+      return artifact;
+   }
+
+
+   /**
+    * Get the number of artifacts written to the store.
+    *
+    * @return number of unique artifacts stored
+    */
+
+   public synchronized int getStoredCount() {
+      return this.stored;
+   }
+
+
+   /**
+    * Get the number of artifacts that were already in the store.
+    *
+    * @return number of duplicate artifacts not written
+    */
+
+   public synchronized int getDeduplicatedCount() {
+      return this.deduplicated;
+   }
+
+
+   /**
+    * Compute the hex encoded SHA-1 hash of a byte array.
+    *
+    * @param data  the data to hash
+    * @return hash string
+    */
+
+   private static String hash(byte[] data) {
+      MessageDigest md;
+
+      try {
+         md = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+         /* Every JRE is required to provide SHA-1. */
+         throw new RuntimeException(e);
+      }
+
+      StringBuilder sb = new StringBuilder(40);
+      for (byte b: md.digest(data)) {
+         sb.append(String.format("%02x", b));
+      }
+
+      return sb.toString();
+   }
+}
@@ -18,12 +18,22 @@ package org.sugarcrm.voodoodriver;
 
 import java.io.File;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import org.openqa.selenium.By;
 import org.openqa.selenium.Dimension;
 import org.openqa.selenium.Mouse;
 import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 import com.gargoylesoftware.htmlunit.ElementNotFoundException;
 
@@ -43,6 +53,12 @@ public abstract class Browser {
 
    private WebDriver Driver = null;
 
+   /**
+    * Counters for the WebDriver commands issued by this browser.
+    */
+
+   private CommandTrace trace = new CommandTrace();
+
    /**
     * Whether the browser window is closed.
     */
@@ -87,6 +103,103 @@ public abstract class Browser {
    private boolean maximizeWindows = false;
 
 
+   /**
+    * Window size used by headless browsers unless one is given.
+    */
+
+   public static final Dimension DEFAULT_WINDOW_SIZE =
+      new Dimension(1280, 1024);
+
+
+   /**
+    * Whether to launch browsers without a visible window.
+    */
+
+   private boolean headless = false;
+
+
+   /**
+    * Size for new browser windows, or null to leave them as they
+    * open.
+    */
+
+   private Dimension windowSize = null;
+
+
+   /**
+    * Launches standby browsers in the background, or null if warm
+    * standby is not enabled.
+    */
+
+   private ExecutorService standbyLauncher = null;
+
+
+   /**
+    * The standby browser being launched or ready for use.
+    */
+
+   private Future<Launch> standby = null;
+
+
+   /**
+    * Processes of the current browser session, or null if unknown.
+    */
+
+   private ProcessTree processes = null;
+
+
+   /**
+    * A launched browser session and its processes.
+    */
+
+   private static class Launch {
+      WebDriver driver;
+      ProcessTree processes;
+
+      Launch(WebDriver driver, ProcessTree processes) {
+         this.driver = driver;
+         this.processes = processes;
+      }
+   }
+
+
+   /**
+    * Whether closing the browser resets its session for reuse instead
+    * of quitting it.
+    */
+
+   private boolean softReset = false;
+
+
+   /**
+    * Whether the closed browser's session has been reset and can be
+    * reused by the next {@link #newBrowser()}.
+    */
+
+   private boolean reusable = false;
+
+
+   /**
+    * Browser restarts between tests, by relaunch and by soft reset,
+    * and the milliseconds spent on each.  A restart is timed from the
+    * start of {@link #close()} to the end of the following
+    * {@link #newBrowser()}, so both kinds cover the same work.
+    */
+
+   private int relaunches = 0;
+   private long relaunchMillis = 0;
+   private int resets = 0;
+   private long resetMillis = 0;
+
+
+   /**
+    * Milliseconds spent in the last {@link #close()}, or -1 if the
+    * browser was not closed with it.
+    */
+
+   private long closeMillis = -1;
+
+
    /**
     * Set the name of the browser profile.
     *
@@ -117,11 +230,363 @@ public abstract class Browser {
    public abstract Mouse getMouse();
 
 
+   /**
+    * Start a new WebDriver session for this browser.
+    *
+    * <p>This may be called from a background thread when warm standby
+    * is enabled, so it must only read this object's settings.</p>
+    *
+    * @return the new {@link WebDriver}
+    */
+
+   protected abstract WebDriver launchDriver();
+
+
    /**
     * Create a new browser window.
+    *
+    * <p>If warm standby is enabled and a standby browser has been
+    * launched, it is used instead of launching a new one, and the
+    * next standby browser is started in the background.</p>
+    */
+
+   public void newBrowser() {
+      long start = System.currentTimeMillis();
+      long closed = this.closeMillis;
+
+      this.closeMillis = -1;
+
+      if (this.reusable) {
+         this.reusable = false;
+         if (isAlive(this.Driver)) {
+            this.setBrowserOpened();
+            this.resets++;
+            this.resetMillis += closed + System.currentTimeMillis() - start;
+            return;
+         }
+         System.out.println("(!)Reset browser is no longer running, launching a new one.");
+         quitQuietly(this.Driver);
+         releaseProcesses();
+      }
+
+      Launch l = takeStandby();
+
+      if (l == null) {
+         l = launch();
+      }
+
+      releaseProcesses();
+      this.setDriver(l.driver);
+      this.processes = l.processes;
+      this.setBrowserOpened();
+      if (closed >= 0) {
+         this.relaunches++;
+         this.relaunchMillis += closed + System.currentTimeMillis() - start;
+      }
+      startStandby();
+   }
+
+
+   /**
+    * Launch a browser and claim the processes it starts.
+    */
+
+   private Launch launch() {
+      if (!startsProcesses()) {
+         return new Launch(launchDriver(), null);
+      }
+
+      synchronized (ProcessTree.LAUNCH_LOCK) {
+         WebDriver driver = launchDriver();
+         return new Launch(driver, ProcessTree.claimNew());
+      }
+   }
+
+
+   /**
+    * Kill the current browser session's processes.
+    *
+    * <p>Only the processes started for this session are killed.  If
+    * those could not be determined or killed, every process whose
+    * name contains the given name is killed instead.</p>
+    *
+    * @param name  name of the browser's processes
+    */
+
+   protected void killProcesses(String name) {
+      if (this.processes == null) {
+         System.out.println("(W)Browser processes are unknown, killing all '" +
+                            name + "' processes.");
+         OSInfo.killProcesses(OSInfo.getProcessIDs(name));
+         return;
+      }
+
+      boolean killed = this.processes.kill();
+      this.processes = null;
+
+      if (!killed) {
+         System.out.println("(W)Failed to read the process table, killing " +
+                            "all '" + name + "' processes.");
+         OSInfo.killProcesses(OSInfo.getProcessIDs(name));
+      }
+   }
+
+
+   /**
+    * Whether launching this browser starts processes on this machine.
+    *
+    * Launches of browsers that do not are not serialized, and no
+    * processes are claimed for them.
+    *
+    * @return true if the browser runs in its own processes
+    */
+
+   protected boolean startsProcesses() {
+      return true;
+   }
+
+
+   /**
+    * Forget the current session's processes once it has ended.
+    */
+
+   private void releaseProcesses() {
+      if (this.processes != null) {
+         this.processes.release();
+         this.processes = null;
+      }
+   }
+
+
+   /**
+    * Enable or disable soft reset.
+    *
+    * <p>With soft reset, {@link #close()} returns the browser to a
+    * clean state instead of quitting it, and the next
+    * {@link #newBrowser()} reuses it.  Browser restarts between tests
+    * then cost a few WebDriver commands rather than a relaunch.  A
+    * browser that was killed, for instance after a watchdog timeout,
+    * is still relaunched.</p>
+    *
+    * @param soft  true to reset rather than quit closed browsers
+    */
+
+   public void setSoftReset(boolean soft) {
+      this.softReset = soft;
+   }
+
+
+   /**
+    * Return the browser session to a clean state.
+    *
+    * <p>Any alert is dismissed, all windows but one are closed, the
+    * local and session storage and cookies of the page being shown
+    * are cleared, and about:blank is loaded.  WebDriver can only
+    * reach the storage and cookies of the current page's site, so
+    * those of other sites visited by the test are kept.</p>
+    *
+    * @return true if the session was reset
+    */
+
+   public boolean softReset() {
+      try {
+         try {
+            this.Driver.switchTo().alert().dismiss();
+         } catch (WebDriverException e) {
+            /* No alert. */
+         }
+
+         Set<String> handles = this.Driver.getWindowHandles();
+         if (handles.isEmpty()) {
+            return false;
+         }
+
+         String keep = handles.iterator().next();
+         for (String handle: handles) {
+            if (!handle.equals(keep)) {
+               this.Driver.switchTo().window(handle);
+               this.Driver.close();
+            }
+         }
+         this.Driver.switchTo().window(keep);
+         this.Driver.switchTo().defaultContent();
+
+         ((JavascriptExecutor)this.Driver).executeScript(
+            "try { window.localStorage.clear(); } catch (e) {}\n" +
+            "try { window.sessionStorage.clear(); } catch (e) {}\n");
+         this.Driver.manage().deleteAllCookies();
+         this.Driver.navigate().to("about:blank");
+      } catch (WebDriverException e) {
+         System.out.println("(!)Soft reset failed: " + e);
+         return false;
+      }
+
+      return true;
+   }
+
+
+   /**
+    * Close any browser still kept at the end of the run.
+    *
+    * <p>This closes the standby browser and the session kept by a
+    * soft reset, and prints the average cost of the browser restarts
+    * during the run, by relaunch and by soft reset.</p>
+    */
+
+   public void shutdown() {
+      closeStandby();
+
+      if (this.reusable) {
+         this.reusable = false;
+         quitQuietly(this.Driver);
+         releaseProcesses();
+      }
+
+      System.out.printf("(*)Browser restarts by relaunch: %d, average %d ms." +
+                        "  By soft reset: %d, average %d ms.\n",
+                        this.relaunches,
+                        (this.relaunches == 0) ? 0 : this.relaunchMillis / this.relaunches,
+                        this.resets,
+                        (this.resets == 0) ? 0 : this.resetMillis / this.resets);
+   }
+
+
+   /**
+    * Enable or disable warm standby.
+    *
+    * <p>With warm standby, the next browser is launched in the
+    * background as soon as one is put into use.  A browser restart
+    * then only waits for the standby to be ready, which it normally
+    * already is.  This costs one idle browser process for the whole
+    * run.</p>
+    *
+    * @param warm  true to keep a standby browser
+    */
+
+   public void setWarmStandby(boolean warm) {
+      if (warm && this.standbyLauncher == null) {
+         this.standbyLauncher =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                  public Thread newThread(Runnable r) {
+                     Thread t = new Thread(r, "standby-browser");
+                     t.setDaemon(true);
+                     return t;
+                  }
+               });
+      } else if (!warm && this.standbyLauncher != null) {
+         closeStandby();
+         this.standbyLauncher.shutdown();
+         this.standbyLauncher = null;
+      }
+   }
+
+
+   /**
+    * Close the standby browser, if any.
+    *
+    * This should be called at the end of the run, so that the standby
+    * browser is not left behind.
+    */
+
+   public void closeStandby() {
+      Launch l = takeStandby();
+
+      if (l != null) {
+         quitQuietly(l.driver);
+         if (l.processes != null) {
+            l.processes.release();
+         }
+      }
+   }
+
+
+   /**
+    * Start launching a standby browser.
+    */
+
+   private void startStandby() {
+      if (this.standbyLauncher == null || this.standby != null) {
+         return;
+      }
+
+      this.standby = this.standbyLauncher.submit(new Callable<Launch>() {
+            public Launch call() {
+               return launch();
+            }
+         });
+   }
+
+
+   /**
+    * Take the standby browser, waiting for it to finish launching.
+    *
+    * @return the standby browser, or null if there is no usable
+    *         standby browser
+    */
+
+   private Launch takeStandby() {
+      Future<Launch> f = this.standby;
+      Launch l;
+
+      if (f == null) {
+         return null;
+      }
+      this.standby = null;
+
+      try {
+         l = f.get();
+      } catch (ExecutionException e) {
+         System.out.println("(!)Standby browser failed to launch: " +
+                            e.getCause());
+         return null;
+      } catch (InterruptedException e) {
+         f.cancel(true);
+         return null;
+      }
+
+      /*
+       * The standby may have been killed in the meantime, for
+       * instance by forceClose().
+       */
+      if (!isAlive(l.driver)) {
+         System.out.println("(!)Standby browser is no longer running.");
+         quitQuietly(l.driver);
+         if (l.processes != null) {
+            l.processes.release();
+         }
+         return null;
+      }
+
+      return l;
+   }
+
+
+   /**
+    * Check whether a browser session still responds.
+    */
+
+   private static boolean isAlive(WebDriver driver) {
+      try {
+         driver.getWindowHandles();
+      } catch (WebDriverException e) {
+         return false;
+      }
+
+      return true;
+   }
+
+
+   /**
+    * Quit a browser session, ignoring errors.
     */
 
-   public abstract void newBrowser();
+   private static void quitQuietly(WebDriver driver) {
+      try {
+         driver.quit();
+      } catch (WebDriverException e) {
+         System.out.println("(!)Failed to close browser: " + e);
+      }
+   }
 
 
    /**
@@ -204,13 +669,35 @@ public abstract class Browser {
    }
 
 
+   /**
+    * Resize the browser window.
+    *
+    * @param size  the new window size
+    */
+
+   public void resize(Dimension size) {
+      this.Driver.manage().window().setSize(size);
+   }
+
+
    /**
     * Close the browser window.
+    *
+    * With soft reset enabled, the browser is reset and kept for the
+    * next {@link #newBrowser()} instead, unless the reset fails.
     */
 
    public void close() {
-      this.Driver.close();
+      long start = System.currentTimeMillis();
+
+      if (this.softReset && softReset()) {
+         this.reusable = true;
+      } else {
+         this.Driver.close();
+         releaseProcesses();
+      }
       this.setBrowserClosed();
+      this.closeMillis = System.currentTimeMillis() - start;
    }
 
 
@@ -225,6 +712,75 @@ public abstract class Browser {
    }
 
 
+   /**
+    * Set whether to launch browsers without a visible window.
+    *
+    * <p>Headless browsers need no display, and screenshots are taken
+    * by the browser rather than from the screen.  This must be called
+    * before the first browser is launched.</p>
+    *
+    * @param headless  true to launch headless browsers
+    */
+
+   public void setHeadless(boolean headless) {
+      this.headless = headless;
+   }
+
+
+   /**
+    * Whether browsers are launched without a visible window.
+    *
+    * @return true if browsers are headless
+    */
+
+   public boolean isHeadless() {
+      return this.headless;
+   }
+
+
+   /**
+    * Whether the browser runs on this machine.
+    *
+    * A browser on another machine cannot be captured from this
+    * machine's screen.
+    *
+    * @return true for local browsers
+    */
+
+   public boolean isLocal() {
+      return true;
+   }
+
+
+   /**
+    * Set the size of new browser windows.
+    *
+    * A window size takes the place of maximizing new windows.
+    *
+    * @param size  the window size, or null to leave windows as they open
+    */
+
+   public void setWindowSize(Dimension size) {
+      this.windowSize = size;
+   }
+
+
+   /**
+    * Get the size of new browser windows.
+    *
+    * @return the window size, {@link #DEFAULT_WINDOW_SIZE} for headless
+    *         browsers if none was set, otherwise null
+    */
+
+   public Dimension getWindowSize() {
+      if (this.windowSize == null && isHeadless()) {
+         return DEFAULT_WINDOW_SIZE;
+      }
+
+      return this.windowSize;
+   }
+
+
    /**
     * Force the browser window to close via the native operating system.
     */
@@ -256,13 +812,33 @@ public abstract class Browser {
     */
 
    public void setBrowserOpened() {
-      if (this.maximizeWindows == true) {
+      if (this.windowSize != null) {
+         resize(this.windowSize);
+      } else if (this.maximizeWindows == true && !isHeadless()) {
          maximize();
       }
       this.closed = false;
    }
 
 
+   /**
+    * Take a screenshot of the current page using the browser.
+    *
+    * Unlike a screen capture, this needs no display.
+    *
+    * @return the PNG encoded screenshot
+    * @throws WebDriverException if the browser cannot take screenshots
+    */
+
+   public byte[] screenshot() {
+      if (!(this.Driver instanceof TakesScreenshot)) {
+         throw new WebDriverException("Browser cannot take screenshots");
+      }
+
+      return ((TakesScreenshot)this.Driver).getScreenshotAs(OutputType.BYTES);
+   }
+
+
    /**
     * Fetch the page source for the loaded page.
     *
@@ -407,11 +983,25 @@ public abstract class Browser {
    /**
     * Set the {@link WebDriver} for the browser to use.
     *
+    * The driver is wrapped so that every command it executes is
+    * recorded in this browser's {@link CommandTrace}.
+    *
     * @param driver  the {@link WebDriver}
     */
 
    public void setDriver(WebDriver driver) {
-      this.Driver = driver;
+      this.Driver = CommandTrace.wrap(driver, this.trace);
+   }
+
+
+   /**
+    * Get the WebDriver command counters for this browser.
+    *
+    * @return {@link CommandTrace}
+    */
+
+   public CommandTrace getCommandTrace() {
+      return this.trace;
    }
 
    /**
@@ -434,6 +1024,29 @@ public abstract class Browser {
    public abstract void alertHack(boolean alert);
 
 
+   /**
+    * Replace the page's alert() and confirm() with functions that
+    * return immediately, and drop its onbeforeunload handler.
+    *
+    * This implements {@link #alertHack} for browsers that cannot
+    * suppress the dialogs themselves.
+    *
+    * @param alert  the value alert() and confirm() return
+    */
+
+   protected void replaceAlerts(boolean alert) {
+      String alert_js = "var old_alert = window.alert;\n" +
+         "var old_confirm = window.confirm;\n" +
+         "window.alert = function() {return " + alert + ";};\n" +
+         "window.confirm = function() {return " + alert + ";};\n" +
+         "window.onbeforeunload = null;\n" +
+         "var result = 0;\n" +
+         "result;\n";
+
+      this.executeJS(alert_js, null);
+   }
+
+
    /**
     * Assert the specified text is found in the current page.
     *
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2011-2012 SugarCRM Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You
+ * may may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  Please see the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package org.sugarcrm.voodoodriver;
+
+
+/**
+ * Cooperative cancellation of a running test.
+ *
+ * <p>A CancellationToken is shared by a test's {@link Reporter} and
+ * its {@link EventLoop}.  Once cancelled, the event loop stops
+ * executing events at the next check, and any {@link #sleep} in
+ * progress returns immediately.  This replaces terminating the test
+ * thread outright, which left the report file and browser in an
+ * unknown state.</p>
+ */
+
+public class CancellationToken {
+
+   /**
+    * Whether this token has been cancelled.
+    */
+
+   private volatile boolean cancelled = false;
+
+
+   /**
+    * Cancel the test.
+    *
+    * Wakes up any threads sleeping on this token.
+    */
+
+   public synchronized void cancel() {
+      this.cancelled = true;
+      this.notifyAll();
+   }
+
+
+   /**
+    * Return whether this token has been cancelled.
+    *
+    * @return true if cancelled, false otherwise
+    */
+
+   public boolean isCancelled() {
+      return this.cancelled;
+   }
+
+
+   /**
+    * Sleep for the specified time or until cancelled.
+    *
+    * An interrupt of the sleeping thread also ends the sleep early.
+    *
+    * @param millis  time to sleep in milliseconds
+    * @return true if the sleep ended because of cancellation
+    */
+
+   public synchronized boolean sleep(long millis) {
+      long end = System.currentTimeMillis() + millis;
+      long remaining = millis;
+
+      while (!this.cancelled && remaining > 0) {
+         try {
+            this.wait(remaining);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+         }
+         remaining = end - System.currentTimeMillis();
+      }
+
+      return this.cancelled;
+   }
+}
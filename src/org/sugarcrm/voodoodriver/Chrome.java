@@ -16,8 +16,12 @@
 
 package org.sugarcrm.voodoodriver;
 
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.HasInputDevices;
 import org.openqa.selenium.Mouse;
+import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
 
 
 /**
@@ -42,12 +46,25 @@ public class Chrome extends Browser {
 
 
    /**
-    * Create a new Chrome browser instance.
+    * Launch a new Chrome browser instance.
+    *
+    * A headless browser is launched with its window size given on
+    * the command line, since it has no screen to size itself to.
+    *
+    * @return the new {@link WebDriver}
     */
 
-   public void newBrowser() {
-      this.setDriver(new ChromeDriver());
-      this.setBrowserOpened();
+   protected WebDriver launchDriver() {
+      ChromeOptions o = new ChromeOptions();
+
+      if (isHeadless()) {
+         Dimension size = getWindowSize();
+         o.addArguments("--headless", "--disable-gpu",
+                        String.format("--window-size=%d,%d",
+                                      size.getWidth(), size.getHeight()));
+      }
+
+      return new ChromeDriver(o);
    }
 
 
@@ -83,10 +100,12 @@ public class Chrome extends Browser {
 
    /**
     * Force the browser window to close via the native operating system.
+    *
+    * Only the processes started for this browser are killed.
     */
 
    public void forceClose() {
-      OSInfo.killProcesses(OSInfo.getProcessIDs("Google Chrome"));
+      this.killProcesses("Google Chrome");
       this.setBrowserClosed();
    }
 
@@ -98,6 +117,6 @@ public class Chrome extends Browser {
     */
 
    public Mouse getMouse() {
-      return ((ChromeDriver)this.getDriver()).getMouse();
+      return ((HasInputDevices)this.getDriver()).getMouse();
    }
 }
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2011-2012 SugarCRM Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You
+ * may may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  Please see the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package org.sugarcrm.voodoodriver;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.openqa.selenium.HasInputDevices;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.internal.Locatable;
+import org.openqa.selenium.internal.WrapsDriver;
+import org.openqa.selenium.internal.WrapsElement;
+
+
+/**
+ * Count and time every WebDriver command.
+ *
+ * <p>Nearly every WebDriver call is an HTTP round trip to the
+ * browser, and that is where most of the time in an event goes.
+ * {@link #wrap} decorates a WebDriver so that each command it (and
+ * the elements, windows, alerts, etc. obtained from it) executes is
+ * counted and timed.  Totals are kept per command for the current
+ * test, and per event type so chatty event handlers stand out.</p>
+ *
+ * <p>The decorator is a dynamic proxy implementing every public
+ * interface of the object it wraps, so casts to
+ * JavascriptExecutor, HasInputDevices, TakesScreenshot, Locatable and
+ * so on continue to work.  Casts to concrete driver classes do
+ * not.</p>
+ */
+
+public class CommandTrace {
+
+   /**
+    * Methods that return local helper objects rather than talking to
+    * the browser, by declaring interface and name.  These take no
+    * arguments and are not counted.  Methods with the same name that
+    * take arguments, like TargetLocator.window(String), are commands
+    * and are counted.
+    */
+
+   private final static HashSet<String> LOCAL_METHODS =
+      new HashSet<String>(Arrays.asList(
+         methodKey(WebDriver.class, "switchTo"),
+         methodKey(WebDriver.class, "manage"),
+         methodKey(WebDriver.class, "navigate"),
+         methodKey(WebDriver.Options.class, "timeouts"),
+         methodKey(WebDriver.Options.class, "window"),
+         methodKey(HasInputDevices.class, "getMouse"),
+         methodKey(HasInputDevices.class, "getKeyboard"),
+         methodKey(Locatable.class, "getCoordinates"),
+         methodKey(WrapsElement.class, "getWrappedElement"),
+         methodKey(WrapsDriver.class, "getWrappedDriver")));
+
+   /**
+    * Per-command {count, nanoseconds} for the current test.
+    */
+
+   private TreeMap<String, long[]> commands = new TreeMap<String, long[]>();
+
+   /**
+    * Per-event type {events, commands, nanoseconds} for the current
+    * test.
+    */
+
+   private TreeMap<String, long[]> events = new TreeMap<String, long[]>();
+
+   /**
+    * Total commands executed since the trace was created.
+    */
+
+   private long commandCount = 0;
+
+   /**
+    * Total nanoseconds spent in commands since the trace was created.
+    */
+
+   private long commandNanos = 0;
+
+
+   /**
+    * Key of a method in {@link #LOCAL_METHODS}.
+    */
+
+   private static String methodKey(Class<?> declared, String name) {
+      return declared.getName() + "." + name;
+   }
+
+
+   /**
+    * Whether a method returns a local helper object rather than
+    * talking to the browser.
+    *
+    * @param method  the method called
+    * @return true if the call is not a command
+    */
+
+   private static boolean isLocal(Method method) {
+      return (method.getParameterTypes().length == 0 &&
+              LOCAL_METHODS.contains(methodKey(method.getDeclaringClass(),
+                                               method.getName())));
+   }
+
+
+   /**
+    * Wrap a WebDriver so that its commands are recorded.
+    *
+    * @param driver  the WebDriver to wrap
+    * @param trace   where to record commands
+    * @return the wrapped WebDriver
+    */
+
+   public static WebDriver wrap(WebDriver driver, CommandTrace trace) {
+      return (WebDriver)trace.proxy(driver, WebDriver.class);
+   }
+
+
+   /**
+    * Reset the per-test counters.
+    */
+
+   public synchronized void reset() {
+      this.commands.clear();
+      this.events.clear();
+   }
+
+
+   /**
+    * Get the total number of commands executed.
+    *
+    * @return number of commands
+    */
+
+   public synchronized long getCommandCount() {
+      return this.commandCount;
+   }
+
+
+   /**
+    * Get the total time spent executing commands.
+    *
+    * @return time in nanoseconds
+    */
+
+   public synchronized long getCommandNanos() {
+      return this.commandNanos;
+   }
+
+
+   /**
+    * Record the commands executed by an event.
+    *
+    * @param type      event type
+    * @param commands  number of commands executed by the event
+    * @param nanos     time spent in those commands
+    */
+
+   public synchronized void recordEvent(String type, long commands,
+                                        long nanos) {
+      long[] e = this.events.get(type);
+
+      if (e == null) {
+         e = new long[3];
+         this.events.put(type, e);
+      }
+
+      e[0] += 1;
+      e[1] += commands;
+      e[2] += nanos;
+   }
+
+
+   /**
+    * Format the per-test counters as a table for the test log.
+    *
+    * @return lines of the table
+    */
+
+   public synchronized ArrayList<String> summary() {
+      ArrayList<String> lines = new ArrayList<String>();
+      long count = 0;
+      long nanos = 0;
+
+      for (long[] c: this.commands.values()) {
+         count += c[0];
+         nanos += c[1];
+      }
+
+      lines.add(String.format("WebDriver commands: %d round trips, %d ms.",
+                              count, nanos / 1000000));
+      if (count == 0) {
+         return lines;
+      }
+
+      lines.add(String.format("%8s %10s %9s  %s", "count", "total ms",
+                              "mean ms", "command"));
+      for (Map.Entry<String, long[]> c: this.commands.entrySet()) {
+         long[] v = c.getValue();
+         lines.add(String.format("%8d %10d %9.1f  %s", v[0], v[1] / 1000000,
+                                 v[1] / 1000000.0 / v[0], c.getKey()));
+      }
+
+      lines.add(String.format("%8s %10s %9s  %s", "events", "commands",
+                              "per event", "event"));
+      for (Map.Entry<String, long[]> e: this.events.entrySet()) {
+         long[] v = e.getValue();
+         lines.add(String.format("%8d %10d %9.1f  %s", v[0], v[1],
+                                 (double)v[1] / v[0], e.getKey()));
+      }
+
+      return lines;
+   }
+
+
+   /**
+    * Record one command.
+    */
+
+   private synchronized void record(String command, long nanos) {
+      long[] c = this.commands.get(command);
+
+      if (c == null) {
+         c = new long[2];
+         this.commands.put(command, c);
+      }
+
+      c[0] += 1;
+      c[1] += nanos;
+      this.commandCount += 1;
+      this.commandNanos += nanos;
+   }
+
+
+   /**
+    * Wrap an object returned by WebDriver.
+    *
+    * @param target    the object to wrap
+    * @param declared  the declared type of the object
+    * @return a proxy for target, or target itself if it can't be proxied
+    */
+
+   private Object proxy(Object target, Class<?> declared) {
+      LinkedHashSet<Class<?>> ifaces = new LinkedHashSet<Class<?>>();
+
+      if (declared.isInterface()) {
+         ifaces.add(declared);
+      }
+      for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+         addInterfaces(c, ifaces);
+      }
+      if (target instanceof WebElement) {
+         ifaces.add(WrapsElement.class);
+      }
+
+      if (ifaces.isEmpty()) {
+         return target;
+      }
+
+      try {
+         return Proxy.newProxyInstance(CommandTrace.class.getClassLoader(),
+                                       ifaces.toArray(new Class<?>[0]),
+                                       new Handler(target, declared));
+      } catch (IllegalArgumentException e) {
+         /* Interfaces not visible from this class loader. */
+         return target;
+      }
+   }
+
+
+   /**
+    * Collect the public interfaces of a class, recursively.
+    */
+
+   private static void addInterfaces(Class<?> c, LinkedHashSet<Class<?>> s) {
+      for (Class<?> i: c.getInterfaces()) {
+         if (Modifier.isPublic(i.getModifiers())) {
+            s.add(i);
+         }
+         addInterfaces(i, s);
+      }
+   }
+
+
+   /**
+    * Whether a return value should be wrapped.
+    *
+    * Only Selenium's own interfaces are wrapped; strings, sets of
+    * window handles and the like are passed through.
+    */
+
+   private static boolean isSeleniumInterface(Class<?> c) {
+      return (c.isInterface() &&
+              c.getName().startsWith("org.openqa.selenium.") &&
+              c != org.openqa.selenium.Capabilities.class);
+   }
+
+
+   /**
+    * Replace any of our proxies in a method's arguments with the
+    * objects they wrap, so that the real driver can serialize them.
+    */
+
+   private static Object[] unwrapArgs(Object[] args) {
+      if (args == null) {
+         return null;
+      }
+
+      Object[] out = args.clone();
+      for (int k = 0; k < out.length; k++) {
+         if (out[k] instanceof Object[]) {
+            out[k] = unwrapArgs((Object[])out[k]);
+         } else if (out[k] != null && Proxy.isProxyClass(out[k].getClass()) &&
+                    Proxy.getInvocationHandler(out[k]) instanceof Handler) {
+            out[k] = ((Handler)Proxy.getInvocationHandler(out[k])).target;
+         }
+      }
+
+      return out;
+   }
+
+
+   /**
+    * Invocation handler that times each call.
+    */
+
+   private class Handler implements InvocationHandler {
+
+      private Object target;
+      private String prefix;
+
+      Handler(Object target, Class<?> declared) {
+         this.target = target;
+         this.prefix = declared.getSimpleName() + ".";
+      }
+
+      public Object invoke(Object proxy, Method method, Object[] args)
+         throws Throwable {
+         String name = method.getName();
+         Object result;
+
+         if (method.getDeclaringClass() == Object.class) {
+            if (name.equals("equals")) {
+               return proxy == args[0] ||
+                  this.target.equals(unwrapArgs(args)[0]);
+            }
+            return method.invoke(this.target, args);
+         }
+
+         if (method.getDeclaringClass() == WrapsElement.class &&
+             !(this.target instanceof WrapsElement)) {
+            return this.target;
+         }
+
+         long start = System.nanoTime();
+         try {
+            result = method.invoke(this.target, unwrapArgs(args));
+         } catch (InvocationTargetException e) {
+            throw e.getCause();
+         } finally {
+            if (!isLocal(method)) {
+               record(this.prefix + name, System.nanoTime() - start);
+            }
+         }
+
+         return wrapResult(result, method.getReturnType());
+      }
+
+      /**
+       * Wrap a return value if it's something that talks to the browser.
+       */
+
+      private Object wrapResult(Object result, Class<?> type) {
+         if (result == null) {
+            return null;
+         }
+
+         if (result instanceof List) {
+            List<Object> wrapped = new ArrayList<Object>();
+            for (Object o: (List<?>)result) {
+               wrapped.add((o instanceof WebElement) ?
+                           proxy(o, WebElement.class) : o);
+            }
+            return wrapped;
+         }
+
+         if (isSeleniumInterface(type)) {
+            return proxy(result, type);
+         }
+
+         /* executeScript() returns Object, which may be an element. */
+         if (result instanceof WebElement) {
+            return proxy(result, WebElement.class);
+         }
+
+         return result;
+      }
+   }
+}
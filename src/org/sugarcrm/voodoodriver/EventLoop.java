@@ -23,6 +23,9 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -31,10 +34,12 @@ import org.apache.commons.io.FilenameUtils;
 import org.openqa.selenium.Alert;
 import org.openqa.selenium.By;
 import org.openqa.selenium.ElementNotVisibleException;
+import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.NoAlertPresentException;
 import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.NoSuchFrameException;
 import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.support.ui.Select;
 
@@ -54,11 +59,26 @@ public class EventLoop implements Runnable {
    private VDDHash sodaVars = null;
    private Reporter report = null;
    private VDDHash hijacks = null;
-   private Date threadTime = null;
+   private volatile long heartbeat = 0;
    private volatile Thread runner;
-   private volatile Boolean threadStop = false;
+   private volatile boolean threadStop = false;
+   private CancellationToken cancellation = null;
+   private EventTimings timings = new EventTimings();
+   private long[] phaseNanos = new long[EventTimings.Phase.values().length];
+   private long childNanos = 0;
+   private long childCommands = 0;
+   private long childCommandNanos = 0;
    private VDDHash ElementStore = null;
    private String currentHWnd = null;
+   private WindowRegistry windows = null;
+
+   /**
+    * The browser's windows as last seen before a page event, so
+    * attach can tell the windows opened since.  This is taken from
+    * handle lists that are fetched anyway: when the loop starts, at
+    * the end of each attach, and by the plugin check before a click.
+    */
+   private HashSet<String> windowsBefore = new HashSet<String>();
    private int attachTimeout = 0;
    private String csvOverrideFile = null;
    private VDDHash whitelist = null;
@@ -67,6 +87,49 @@ public class EventLoop implements Runnable {
    private int eventTimeout = 0;
    private long DEFAULT_WAIT_DURATION = 5;
 
+   /**
+    * First and longest intervals, in milliseconds, between polls for
+    * a window to attach to.
+    */
+   private static final long ATTACH_POLL_MIN = 50;
+   private static final long ATTACH_POLL_MAX = 1000;
+
+   /**
+    * Events that do not touch the page, and so can run in whatever
+    * frame the browser happens to be in.
+    */
+   private static final EnumSet<Elements> NO_PAGE_EVENTS =
+      EnumSet.of(Elements.ARG, Elements.CSV, Elements.EXECUTE,
+                 Elements.PLUGINLOADER, Elements.PUTS, Elements.STAMP,
+                 Elements.TIMESTAMP, Elements.VAR, Elements.WAIT,
+                 Elements.WHITELIST);
+
+   /**
+    * The frame events should run in, as a path of frame indexes and
+    * names from the top of the window.
+    */
+   private ArrayList<Object> framePath = new ArrayList<Object>();
+
+   /**
+    * The frame the browser is actually in, or null if unknown.  Frame
+    * switches are made lazily, when an event needs the page, so
+    * consecutive frame blocks for the same frame switch only once.
+    */
+   private ArrayList<Object> frameContext = new ArrayList<Object>();
+   private int frameSwitchesSkipped = 0;
+
+   /**
+    * Script returning the depth of the browser's current frame, the
+    * frame's window name and the id of its frame element.  The depth
+    * is -1 if the frame is no longer in a window.
+    */
+   private static final String FRAME_CHECK_JS =
+      "var w = window, d = 0;\n" +
+      "while (w && w !== w.parent) { d++; w = w.parent; }\n" +
+      "var id = null;\n" +
+      "try { id = window.frameElement ? window.frameElement.id : null; } catch (e) {}\n" +
+      "return [w ? d : -1, window.name, id];\n";
+
 
    /**
     * The class Constructor.
@@ -87,10 +150,12 @@ public class EventLoop implements Runnable {
       testEvents = events;
       this.Browser = browser;
       this.report = reporter;
+      this.cancellation = reporter.getCancellationToken();
       this.hijacks = hijacks;
       this.testName = testName;
       this.whitelist = new VDDHash();
       this.eventTimeout = eventTimeout;
+      this.windows = new WindowRegistry(browser);
 
       if (oldvars != null) {
          sodaVars = oldvars;
@@ -119,9 +184,10 @@ public class EventLoop implements Runnable {
       this.stampEvent();
       SimpleDateFormat df = new SimpleDateFormat("MM/dd/yyyy");
       this.sodaVars.put("currentdate", df.format(new Date()));
-      this.threadTime = new Date();
+      this.resetThreadTime();
       String hwnd = this.Browser.getDriver().getWindowHandle();
       this.setCurrentHWND(hwnd);
+      this.windowsBefore = new HashSet<String>(this.windows.refresh());
       this.runner = new Thread(this, "EventLoop-Thread");
       runner.start();
    }
@@ -139,14 +205,20 @@ public class EventLoop implements Runnable {
    /**
     * Checks to see if a browser window exists.
     *
-    * @param hwnd {@link String}
+    * The window registry is left alone, so that a window opened by
+    * the event being handled still counts as new for attach.
+    *
+    * @param hwnd         {@link String}
+    * @param beforeEvent  whether this is checked before the page
+    *                     event, in which case the windows are
+    *                     remembered for attach
     * @return true if the window exists
     */
-   private boolean windowExists(String hwnd) {
-      Set<String> windows = null;
+   private boolean windowExists(String hwnd, boolean beforeEvent) {
+      Set<String> handles;
 
       try {
-         windows = this.Browser.getDriver().getWindowHandles();
+         handles = this.Browser.getDriver().getWindowHandles();
       } catch (org.openqa.selenium.WebDriverException e) {
          /*
           * When running the IE driver, if the window is closed, an
@@ -155,13 +227,11 @@ public class EventLoop implements Runnable {
          return false;
       }
 
-      for (int i = 0; i < windows.size(); i++) {
-         if (hwnd.equals(windows.toArray()[i].toString())) {
-            return true;
-         }
+      if (beforeEvent && handles.contains(hwnd)) {
+         this.windowsBefore = new HashSet<String>(handles);
       }
 
-      return false;
+      return handles.contains(hwnd);
    }
 
    /**
@@ -194,7 +264,9 @@ public class EventLoop implements Runnable {
       }
 
       if (assertpage) {
+         long start = System.nanoTime();
          this.Browser.assertPage(this.whitelist);
+         this.addPhaseTime(EventTimings.Phase.ASSERTPAGE, start);
       }
    }
 
@@ -250,52 +322,67 @@ public class EventLoop implements Runnable {
    }
 
    public void stop() {
-      synchronized (this.threadStop) {
-         this.threadStop = true;
-         this.runner.interrupt();
-      }
+      this.threadStop = true;
+      this.cancellation.cancel();
+      this.runner.interrupt();
    }
 
    public boolean isStopped() {
-      boolean result = false;
-
-      synchronized (this.threadStop) {
-         result = this.threadStop;
-      }
-
-      return result;
+      return this.threadStop || this.cancellation.isCancelled();
    }
 
    public void run() {
       System.out.printf("Thread Running...\n");
-      this.threadTime = new Date();
+      this.resetThreadTime();
       int i = 0;
       int event_count = this.testEvents.size() - 1;
 
       this.firePlugin(null, PluginEvent.BEFORETEST);
 
-      while ((!this.threadStop) && (i <= event_count)) {
+      while ((!isStopped()) && (i <= event_count)) {
          handleSingleEvent(this.testEvents.get(i), null);
          i += 1;
       }
 
+      /* Leave the browser at the top of the window for the next test. */
+      this.framePath = new ArrayList<Object>();
+      if (!isStopped()) {
+         try {
+            syncFrameContext();
+         } catch (WebDriverException e) {
+            this.report.ReportException(e);
+         }
+      }
+
       this.firePlugin(null, PluginEvent.AFTERTEST);
-   }
 
-   private void resetThreadTime() {
-      synchronized (this.threadTime) {
-         this.threadTime = new Date();
+      if (this.frameSwitchesSkipped > 0) {
+         this.report.Log(String.format("Frame switches skipped: %d.",
+                                       this.frameSwitchesSkipped));
       }
    }
 
-   public Date getThreadTime() {
-      Date tmp = null;
+   /**
+    * Record that the event loop is making progress.
+    *
+    * This is called many times per event, so it only stores a
+    * timestamp in a volatile field: no allocation and no locking.
+    */
 
-      synchronized (this.threadTime) {
-         tmp = this.threadTime;
-      }
+   private void resetThreadTime() {
+      this.heartbeat = System.nanoTime();
+   }
 
-      return tmp;
+   /**
+    * Get the time since the event loop last made progress.
+    *
+    * Used by the watchdog in <code>Test.runTest</code>.
+    *
+    * @return idle time in milliseconds
+    */
+
+   public long getIdleTime() {
+      return (System.nanoTime() - this.heartbeat) / 1000000;
    }
 
    private void processEvents(Events events, WebElement parent) {
@@ -310,6 +397,70 @@ public class EventLoop implements Runnable {
       }
    }
 
+   /**
+    * Sleep without holding up a stopped test.
+    *
+    * Returns early if the test is stopped or cancelled.
+    *
+    * @param millis  time to sleep in milliseconds
+    */
+
+   private void sleep(long millis) {
+      long start = System.nanoTime();
+      this.cancellation.sleep(millis);
+      this.addPhaseTime(EventTimings.Phase.SETTLE, start);
+   }
+
+
+   /**
+    * Charge time to a phase of the current event.
+    *
+    * @param phase  the phase
+    * @param start  System.nanoTime() at the start of the phase
+    */
+
+   private void addPhaseTime(EventTimings.Phase phase, long start) {
+      this.phaseNanos[phase.ordinal()] += System.nanoTime() - start;
+   }
+
+
+   /**
+    * Record the timings of a completed event.
+    *
+    * <p>Time spent in child events is excluded, as the children
+    * record their own timings.  Whatever isn't accounted for by the
+    * other phases is charged to the action phase.</p>
+    *
+    * @param type     the event type
+    * @param elapsed  wall time of the event in nanoseconds
+    */
+
+   private void recordEventTimings(Elements type, long elapsed) {
+      String name = type.toString().toLowerCase();
+      long action = elapsed - this.childNanos;
+
+      for (EventTimings.Phase phase: EventTimings.Phase.values()) {
+         long t = this.phaseNanos[phase.ordinal()];
+         if (phase != EventTimings.Phase.ACTION && t > 0) {
+            this.timings.record(name, phase, t / 1000);
+            action -= t;
+         }
+      }
+
+      this.timings.record(name, EventTimings.Phase.ACTION, action / 1000);
+   }
+
+
+   /**
+    * Get the event timings for this test.
+    *
+    * @return the {@link EventTimings} recorded so far
+    */
+
+   public EventTimings getEventTimings() {
+      return this.timings;
+   }
+
    public Events getElements() {
       return testEvents;
    }
@@ -325,9 +476,35 @@ public class EventLoop implements Runnable {
 
       this.resetThreadTime();
 
+      /*
+       * Each event gets its own phase accumulators.  The parent's are
+       * restored once this event is finished.
+       */
+      long[] parentPhaseNanos = this.phaseNanos;
+      long parentChildNanos = this.childNanos;
+      long parentChildCommands = this.childCommands;
+      long parentChildCommandNanos = this.childCommandNanos;
+      CommandTrace trace = this.Browser.getCommandTrace();
+      long commandStart = trace.getCommandCount();
+      long commandNanosStart = trace.getCommandNanos();
+      long eventStart = System.nanoTime();
+      this.phaseNanos = new long[parentPhaseNanos.length];
+      this.childNanos = 0;
+      this.childCommands = 0;
+      this.childCommandNanos = 0;
+
+      if (type != Elements.FRAME && !NO_PAGE_EVENTS.contains(type)) {
+         try {
+            syncFrameContext();
+         } catch (WebDriverException e) {
+            this.report.ReportException(e);
+         }
+      }
+
       switch (type) {
       case BROWSER:
          result = browserEvent(event, parent);
+         frameNavigated();
          break;
       case THEAD:
          element = theadEvent(event, parent);
@@ -427,6 +604,7 @@ public class EventLoop implements Runnable {
          break;
       case JAVASCRIPT:
          result = javascriptEvent(event);
+         frameNavigated();
          break;
       case UL:
          result = ulEvent(event);
@@ -514,6 +692,18 @@ public class EventLoop implements Runnable {
 
       this.assertPage(event);
 
+      long elapsed = System.nanoTime() - eventStart;
+      long commands = trace.getCommandCount() - commandStart;
+      long commandNanos = trace.getCommandNanos() - commandNanosStart;
+      this.recordEventTimings(type, elapsed);
+      trace.recordEvent(type.toString().toLowerCase(),
+                        commands - this.childCommands,
+                        commandNanos - this.childCommandNanos);
+      this.phaseNanos = parentPhaseNanos;
+      this.childNanos = parentChildNanos + elapsed;
+      this.childCommands = parentChildCommands + commands;
+      this.childCommandNanos = parentChildCommandNanos + commandNanos;
+
       return result;
    }
 
@@ -588,6 +778,96 @@ public class EventLoop implements Runnable {
       return result;
    }
 
+   /**
+    * Switch the browser into the frame events should run in, unless
+    * it is there already.
+    *
+    * @throws WebDriverException if a frame on the path is missing
+    */
+
+   private void syncFrameContext() {
+      if (this.framePath.equals(this.frameContext)) {
+         return;
+      }
+
+      ArrayList<Object> from = this.frameContext;
+      int k = 0;
+
+      this.frameContext = null;
+
+      if (from != null && from.size() <= this.framePath.size() &&
+          from.equals(this.framePath.subList(0, from.size()))) {
+         k = from.size();
+      } else {
+         this.Browser.getDriver().switchTo().defaultContent();
+      }
+
+      for (; k < this.framePath.size(); k++) {
+         Object f = this.framePath.get(k);
+         if (f instanceof Integer) {
+            this.Browser.getDriver().switchTo().frame((Integer)f);
+         } else {
+            this.Browser.getDriver().switchTo().frame((String)f);
+         }
+      }
+
+      this.frameContext = new ArrayList<Object>(this.framePath);
+   }
+
+
+   /**
+    * Note that the top page may have been replaced.
+    *
+    * A frame the browser was in may be gone, so it will be switched
+    * into again.  The top of the window is unaffected.
+    */
+
+   private void frameNavigated() {
+      if (this.frameContext != null && !this.frameContext.isEmpty()) {
+         this.frameContext = null;
+      }
+   }
+
+
+   /**
+    * Check that the browser is still in the frame it was left in.
+    *
+    * <p>Events in an earlier frame block may have replaced the frame,
+    * or navigated the top page, without this loop knowing.  One
+    * script call checks the frame's depth and name, which is cheaper
+    * than switching into it again.</p>
+    *
+    * @return true if the browser is still in {@link #frameContext}
+    */
+
+   private boolean frameContextValid() {
+      List<?> r;
+
+      try {
+         r = (List<?>)((JavascriptExecutor)this.Browser.getDriver())
+            .executeScript(FRAME_CHECK_JS);
+      } catch (WebDriverException e) {
+         r = null;
+      } catch (ClassCastException e) {
+         r = null;
+      }
+
+      Object last = this.frameContext.get(this.frameContext.size() - 1);
+      boolean valid = (r != null && r.size() == 3 &&
+                       r.get(0) instanceof Number &&
+                       ((Number)r.get(0)).intValue() == this.frameContext.size() &&
+                       (last instanceof Integer ||
+                        last.equals(r.get(1)) || last.equals(r.get(2))));
+
+      if (!valid) {
+         this.report.Log("Frame has changed since it was left.");
+         this.frameContext = null;
+      }
+
+      return valid;
+   }
+
+
    private boolean frameEvent(VDDHash event) {
       boolean result = false;
       int index = -1;
@@ -611,13 +891,29 @@ public class EventLoop implements Runnable {
          frameid = this.replaceString(frameid);
       }
 
+      /*
+       * Frames are entered relative to the current frame path.  The
+       * switches themselves are made by syncFrameContext, and are
+       * skipped if the browser is still in this frame from an
+       * earlier frame event.
+       */
+      ArrayList<Object> parentPath = this.framePath;
+      this.framePath = new ArrayList<Object>(parentPath);
+
       try {
          if (index > -1) {
             this.report.Log("Switching to frame by index: '" + index + "'.");
-            this.Browser.getDriver().switchTo().frame(index);
+            this.framePath.add(Integer.valueOf(index));
          } else {
             this.report.Log("Switching to frame by name: '" + frameid + "'.");
-            this.Browser.getDriver().switchTo().frame(frameid);
+            this.framePath.add(frameid);
+         }
+
+         if (this.framePath.equals(this.frameContext) && frameContextValid()) {
+            this.report.Log("Already in this frame.");
+            this.frameSwitchesSkipped++;
+         } else {
+            syncFrameContext();
          }
 
          if (event.containsKey("children")) {
@@ -625,11 +921,13 @@ public class EventLoop implements Runnable {
          }
 
          this.report.Log("Switching back to default frame.");
-         this.Browser.getDriver().switchTo().defaultContent();
+         this.framePath = new ArrayList<Object>();
       } catch (NoSuchFrameException exp) {
          this.report.ReportError("Failed to find frame!");
+         this.framePath = parentPath;
       } catch (Exception exp) {
          this.report.ReportException(exp);
+         this.framePath = parentPath;
       }
       this.report.Log("Frame event finished.");
 
@@ -714,9 +1012,10 @@ public class EventLoop implements Runnable {
                alert = this.Browser.getDriver().switchTo().alert();
                break;
             } catch (NoAlertPresentException e) {
-               try {
-                  Thread.sleep(1000);
-               } catch (InterruptedException i) {}
+               if (isStopped()) {
+                  break;
+               }
+               this.sleep(1000);
                timeout -= 1;
             }
          }
@@ -752,6 +1051,7 @@ public class EventLoop implements Runnable {
 
          try {
             this.Browser.getDriver().switchTo().defaultContent();
+            this.frameContext = new ArrayList<Object>();
          } catch (Exception e) {
             /*
              * Bug 53577: if this alert is put up in response to a
@@ -765,7 +1065,7 @@ public class EventLoop implements Runnable {
             this.report.Log("Unable to switch back to window. Is it closed?");
          }
          Thread.currentThread();
-         Thread.sleep(1000);
+         this.sleep(1000);
 
          if (user_exists_true) {
             this.report.Assert("Alert dialog does exist.", true, true);
@@ -963,7 +1263,7 @@ public class EventLoop implements Runnable {
                             + event.get("jscriptevent").toString());
             this.Browser.fire_event(element,
                                     event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -1302,7 +1602,7 @@ public class EventLoop implements Runnable {
                             event.get("jscriptevent").toString());
             this.Browser.fire_event(element,
                                     event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -1405,7 +1705,7 @@ public class EventLoop implements Runnable {
             this.report.Log("Firing Javascript Event: "
                             + event.get("jscriptevent").toString());
             this.Browser.fire_event(element, event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -1542,7 +1842,7 @@ public class EventLoop implements Runnable {
                             event.get("jscriptevent").toString());
             this.Browser.fire_event(element,
                                     event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -1737,7 +2037,7 @@ public class EventLoop implements Runnable {
             this.report.Log("Firing Javascript Event: "
                   + event.get("jscriptevent").toString());
             this.Browser.fire_event(element, event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -1794,7 +2094,7 @@ public class EventLoop implements Runnable {
          if (event.containsKey("jscriptevent")) {
             this.report.Log("Firing Javascript Event: " + event.get("jscriptevent").toString());
             this.Browser.fire_event(element, event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
       } catch (Exception exp) {
@@ -1861,7 +2161,7 @@ public class EventLoop implements Runnable {
             String jev = (String)event.get("jscriptevent");
             this.report.Log("Firing Javascript Event: " + jev);
             this.Browser.fire_event(element, jev);
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -1953,7 +2253,7 @@ public class EventLoop implements Runnable {
             this.report.Log("Firing Javascript Event: "
                   + event.get("jscriptevent").toString());
             this.Browser.fire_event(element, event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -2115,10 +2415,7 @@ public class EventLoop implements Runnable {
                                event.get("jscriptevent").toString());
                this.Browser.fire_event(element,
                                        event.get("jscriptevent").toString());
-               try {
-                  Thread.sleep(1000);
-               } catch (InterruptedException e) {
-               }
+               this.sleep(1000);
                this.report.Log("Javascript event finished.");
             }
 
@@ -2198,7 +2495,7 @@ public class EventLoop implements Runnable {
             String ev = (String)event.get("jscriptevent");
             this.report.Log("Firing Javascript Event: " + ev);
             this.Browser.fire_event(element, ev);
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -2325,7 +2622,7 @@ public class EventLoop implements Runnable {
                   + event.get("jscriptevent").toString());
             this.Browser.fire_event(element, event.get("jscriptevent")
                   .toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -2343,9 +2640,39 @@ public class EventLoop implements Runnable {
       return element;
    }
 
+   /**
+    * Wait for the current page to finish loading.
+    *
+    * The page is polled with the same backoff as attach, so the wait
+    * ends soon after the page is ready.
+    *
+    * @param millis  the longest time to wait
+    */
+
+   private void waitForPageLoad(long millis) {
+      long deadline = System.currentTimeMillis() + millis;
+      long delay = ATTACH_POLL_MIN;
+
+      while (!isStopped() && System.currentTimeMillis() < deadline) {
+         try {
+            Object state = ((JavascriptExecutor)this.Browser.getDriver())
+               .executeScript("return document.readyState;");
+            if ("complete".equals(state)) {
+               return;
+            }
+         } catch (WebDriverException e) {
+            /* Page is between documents; try again. */
+         }
+
+         this.sleep(delay);
+         delay = Math.min(2 * delay, ATTACH_POLL_MAX);
+      }
+   }
+
+
    private boolean attachEvent(VDDHash event) {
       boolean result = false;
-      Set<String> handles = null;
+      List<String> handles = null;
       int len = 0;
       boolean use_URL = false;
       String finder = "";
@@ -2357,6 +2684,13 @@ public class EventLoop implements Runnable {
       try {
          this.report.Log("Attach event starting.");
          String currentWindow = this.Browser.getDriver().getWindowHandle();
+
+         /*
+          * Switching windows leaves the browser at the top of the
+          * window, and that is where events run afterwards.
+          */
+         this.framePath = new ArrayList<Object>();
+         this.frameContext = null;
          this.report.Log(String.format("Current Window Handle: '%s'.",
                currentWindow));
 
@@ -2371,7 +2705,6 @@ public class EventLoop implements Runnable {
                return false;
             }
 
-            timeout = 0; // causes the for loop to do nothing this is a hack. should make this method better later ... //
             index = Integer.valueOf(tmp_index);
             finder = tmp_index;
          }else if (event.containsKey("url")) {
@@ -2384,23 +2717,48 @@ public class EventLoop implements Runnable {
 
          finder = this.replaceString(finder);
 
-         for (int timer = 0; timer <= timeout; timer++) {
-            handles = this.Browser.getDriver().getWindowHandles();
+         /*
+          * Windows that were open before the event that opened the
+          * wanted window are rechecked at most once a second; new
+          * windows are checked on every poll.
+          */
+         HashSet<String> before = this.windowsBefore;
+         HashMap<String, String> logged = new HashMap<String, String>();
+         long deadline = System.currentTimeMillis() + timeout * 1000L;
+         long delay = ATTACH_POLL_MIN;
+         long lastFull = 0;
+         TextFinder f = new TextFinder(finder);
+
+         /* Windows are only searched for by title or URL. */
+         while (index == -1) {
+            long now = System.currentTimeMillis();
+            boolean full = (now - lastFull >= 1000);
+
+            handles = this.windows.refresh();
+            if (full) {
+               lastFull = now;
+            }
+
             len = handles.size() - 1;
             for (int i = 0; i <= len; i++) {
-               String tmp_handle = handles.toArray()[i].toString();
-               String tmp_url = this.Browser.getDriver().switchTo()
-                     .window(tmp_handle).getCurrentUrl();
-               String tmp_title = this.Browser.getDriver().switchTo()
-                     .window(tmp_handle).getTitle();
-               this.report.Log(String.format("[%d]: Window Handle: '%s'", i,
-                     tmp_handle));
-               this.report.Log(String.format("[%d]: Window Title: '%s'", i,
-                     tmp_title));
-               this.report.Log(String.format("[%d]: Window URL: '%s'", i,
-                     tmp_url));
-
-               TextFinder f = new TextFinder(finder);
+               String tmp_handle = handles.get(i);
+
+               if (!full && before.contains(tmp_handle)) {
+                  continue;
+               }
+
+               String tmp_url = this.windows.getUrl(tmp_handle);
+               String tmp_title = this.windows.getTitle(tmp_handle);
+               String seen = tmp_url + "\n" + tmp_title;
+
+               if (!seen.equals(logged.put(tmp_handle, seen))) {
+                  this.report.Log(String.format("[%d]: Window Handle: '%s'", i,
+                        tmp_handle));
+                  this.report.Log(String.format("[%d]: Window Title: '%s'", i,
+                        tmp_title));
+                  this.report.Log(String.format("[%d]: Window URL: '%s'", i,
+                        tmp_url));
+               }
 
                if (use_URL && f.findExact(tmp_url)) {
                   found_handle = tmp_handle;
@@ -2415,15 +2773,17 @@ public class EventLoop implements Runnable {
                }
             } // end for loop //
 
-            if (found_handle != null) {
+            if (found_handle != null || isStopped() ||
+                System.currentTimeMillis() >= deadline) {
                break;
             }
-            Thread.sleep(1000);
-         } // end timer loop //
+            this.sleep(delay);
+            delay = Math.min(2 * delay, ATTACH_POLL_MAX);
+         } // end poll loop //
 
 
          if (index != -1) {
-            handles = this.Browser.getDriver().getWindowHandles();
+            handles = this.windows.refresh();
             len = handles.size() -1;
 
             if (index > len) {
@@ -2431,7 +2791,7 @@ public class EventLoop implements Runnable {
                      index, len);
                found_handle = null;
             } else {
-               found_handle = handles.toArray()[index].toString();
+               found_handle = handles.get(index);
             }
          }
 
@@ -2440,12 +2800,13 @@ public class EventLoop implements Runnable {
             this.report.ReportError(msg);
             result = false;
             this.Browser.getDriver().switchTo().window(currentWindow);
-            Thread.sleep(2000); // helps control when the page is loaded, might
-                                 // remove this later... //
+            this.frameContext = new ArrayList<Object>();
+            this.windowsBefore = new HashSet<String>(this.windows.getHandles());
             return result;
          }
 
          this.Browser.getDriver().switchTo().window(found_handle);
+         this.frameContext = new ArrayList<Object>();
          this.setCurrentHWND(found_handle);
          msg = String.format("Switching to window handle: '%s'.", found_handle);
          this.report.Log(msg);
@@ -2454,6 +2815,8 @@ public class EventLoop implements Runnable {
          }
 
          this.Browser.getDriver().switchTo().window(currentWindow);
+         this.frameContext = new ArrayList<Object>();
+         this.windowsBefore = new HashSet<String>(this.windows.getHandles());
          this.Browser.setBrowserOpened();
          this.setCurrentHWND(currentWindow);
          msg = String.format("Switching back to window handle: '%s'.",
@@ -2461,13 +2824,11 @@ public class EventLoop implements Runnable {
          this.report.Log(msg);
 
          if (this.attachTimeout > 0) {
-            long tout = this.attachTimeout * 1000;
-            Thread.currentThread();
             msg = String.format(
-                  "Waiting '%s' seconds before executing next event.",
+                  "Waiting up to '%s' seconds for the page to finish loading.",
                   this.attachTimeout);
             this.report.Log(msg);
-            Thread.sleep(tout);
+            waitForPageLoad(this.attachTimeout * 1000L);
          }
       } catch (Exception exp) {
          this.report.ReportException(exp);
@@ -2554,7 +2915,7 @@ public class EventLoop implements Runnable {
             this.report.Log("Firing Javascript Event: "
                   + event.get("jscriptevent").toString());
             this.Browser.fire_event(element, event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -2834,7 +3195,7 @@ public class EventLoop implements Runnable {
             this.report.Log("Firing Javascript Event: "
                   + event.get("jscriptevent").toString());
             this.Browser.fire_event(element, event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
       } catch (ElementNotVisibleException exp) {
@@ -2924,7 +3285,7 @@ public class EventLoop implements Runnable {
     * Duration of the current wait event.
     */
 
-   private long waitDuration = 0;
+   private volatile long waitDuration = 0;
 
    /**
     * Get the duration of a wait event in progress.
@@ -2959,9 +3320,7 @@ public class EventLoop implements Runnable {
             if (isStopped()) {
                break;
             }
-            try {
-               Thread.sleep(1000);
-            } catch (InterruptedException e) {}
+            this.sleep(1000);
          }
       } finally {
          this.resetThreadTime();
@@ -3167,7 +3526,7 @@ public class EventLoop implements Runnable {
                   + event.get("jscriptevent").toString());
             this.Browser.fire_event(element,
                                     event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -3245,7 +3604,7 @@ public class EventLoop implements Runnable {
                   + event.get("jscriptevent").toString());
             this.Browser.fire_event(element,
                                     event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -3318,7 +3677,7 @@ public class EventLoop implements Runnable {
                             event.get("jscriptevent").toString());
             this.Browser.fire_event(element,
                                     event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -3382,16 +3741,37 @@ public class EventLoop implements Runnable {
                return lst;
             }
 
-            Thread.sleep(100);
+            this.cancellation.sleep(100); // find time, not settle time
          } catch (Exception e) {}
-      } while (System.currentTimeMillis() < end);
+      } while (System.currentTimeMillis() < end && !isStopped());
 
       throw new NoSuchElementException("Failed to find element by " + by);
    }
 
 
+   /**
+    * Find an element, charging the time spent to the find phase.
+    *
+    * @param event     the current event
+    * @param parent    parent element or null
+    * @param required  whether the element is required to exist
+    * @return the element or null
+    */
+
    private WebElement findElement(VDDHash event, WebElement parent,
          boolean required) {
+      long start = System.nanoTime();
+
+      try {
+         return this.locateElement(event, parent, required);
+      } finally {
+         this.addPhaseTime(EventTimings.Phase.FIND, start);
+      }
+   }
+
+
+   private WebElement locateElement(VDDHash event, WebElement parent,
+         boolean required) {
       WebElement element = null;
       By by = null;
       boolean href = false;
@@ -3848,15 +4228,16 @@ public class EventLoop implements Runnable {
     *
     * If this routine returns false, plugin execution will be skipped.
     *
+    * @param beforeEvent  whether the plugins fire before a click
     * @return true if plugins can execute, false otherwise
     */
 
-   private boolean pluginPrefireCheck() {
+   private boolean pluginPrefireCheck(boolean beforeEvent) {
       if (this.plugins.size() == 0) {
          return false;
       }
 
-      if (!this.windowExists(this.getCurrentHWND())) {
+      if (!this.windowExists(this.getCurrentHWND(), beforeEvent)) {
          this.report.Log("Browser window closed. Skipping plugin execution.");
          return false;
       }
@@ -3865,6 +4246,22 @@ public class EventLoop implements Runnable {
    }
 
 
+   /**
+    * Execute a single plugin, charging its time to the plugins phase.
+    *
+    * @param plugin  the plugin
+    * @param data    plugin data
+    * @return the plugin's result
+    */
+
+   private boolean executePlugin(Plugin plugin, PluginData data) {
+      long start = System.nanoTime();
+      boolean result = plugin.execute(data, this.report);
+      this.addPhaseTime(EventTimings.Phase.PLUGINS, start);
+      return result;
+   }
+
+
    /**
     * Execute all plugins.
     *
@@ -3876,7 +4273,7 @@ public class EventLoop implements Runnable {
       boolean result = true;
       PluginData data = new PluginData();
 
-      if (!pluginPrefireCheck()) {
+      if (!pluginPrefireCheck(false)) {
          return true;
       }
 
@@ -3887,7 +4284,7 @@ public class EventLoop implements Runnable {
       data.setTestName(this.testName);
 
       for (Plugin plugin: this.plugins) {
-         result &= plugin.execute(data, this.report);
+         result &= this.executePlugin(plugin, data);
       }
 
       return result;
@@ -3906,7 +4303,7 @@ public class EventLoop implements Runnable {
       boolean result = true;
       PluginData data = new PluginData();
 
-      if (!pluginPrefireCheck()) {
+      if (!pluginPrefireCheck(eventType == PluginEvent.BEFORECLICK)) {
          return true;
       }
 
@@ -3918,7 +4315,7 @@ public class EventLoop implements Runnable {
 
       for (Plugin plugin: this.plugins) {
          if (plugin.matches(eventType)) {
-            result &= plugin.execute(data, this.report);
+            result &= this.executePlugin(plugin, data);
          }
       }
 
@@ -3940,7 +4337,7 @@ public class EventLoop implements Runnable {
       boolean result = true;
       PluginData data = new PluginData();
 
-      if (!pluginPrefireCheck()) {
+      if (!pluginPrefireCheck(eventType == PluginEvent.BEFORECLICK)) {
          return true;
       }
 
@@ -3952,7 +4349,7 @@ public class EventLoop implements Runnable {
 
       for (Plugin plugin: this.plugins) {
          if (plugin.matches(elementType, eventType)) {
-            result &= plugin.execute(data, this.report);
+            result &= this.executePlugin(plugin, data);
          }
       }
 
@@ -4012,7 +4409,7 @@ public class EventLoop implements Runnable {
             this.report.Log("Firing Javascript Event: "
                   + event.get("jscriptevent").toString());
             this.Browser.fire_event(element, event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
       } catch (ElementNotVisibleException exp) {
@@ -4077,7 +4474,7 @@ public class EventLoop implements Runnable {
             this.report.Log("Firing Javascript Event: "
                   + event.get("jscriptevent").toString());
             this.Browser.fire_event(element, event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -4191,7 +4588,7 @@ public class EventLoop implements Runnable {
             this.report.Log("Firing Javascript Event: "
                   + event.get("jscriptevent").toString());
             this.Browser.fire_event(element, event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
@@ -4275,7 +4672,7 @@ public class EventLoop implements Runnable {
          if (event.containsKey("jscriptevent")) {
             this.report.Log("Firing Javascript Event: " + event.get("jscriptevent").toString());
             this.Browser.fire_event(element, event.get("jscriptevent").toString());
-            Thread.sleep(1000);
+            this.sleep(1000);
             this.report.Log("Javascript event finished.");
          }
 
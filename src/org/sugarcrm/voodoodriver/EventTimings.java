@@ -0,0 +1,225 @@
+/*
+ * Copyright 2011-2012 SugarCRM Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You
+ * may may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  Please see the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package org.sugarcrm.voodoodriver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+
+/**
+ * Latency histograms for test events, by event type and phase.
+ *
+ * <p>Each event executed by {@link EventLoop} has its wall time split
+ * into the phases listed in {@link Phase}.  A histogram is kept for
+ * each event type and phase.  All times are in microseconds.  The
+ * timings for each test are written into the suite report and merged
+ * by the summary reporter.</p>
+ */
+
+public class EventTimings {
+
+   /**
+    * The phases of an event.
+    */
+
+   public enum Phase {
+      /** Locating the element on the page */
+      FIND,
+      /** Everything not accounted for by the other phases */
+      ACTION,
+      /** Fixed sleeps waiting for the page to settle */
+      SETTLE,
+      /** Running plugins */
+      PLUGINS,
+      /** Checking the page with assertPage */
+      ASSERTPAGE;
+
+      /**
+       * Get the name of this phase as used in the suite report.
+       *
+       * @return lower case phase name
+       */
+
+      public String getName() {
+         return this.toString().toLowerCase();
+      }
+   }
+
+
+   /**
+    * Histograms keyed by "type/phase".
+    */
+
+   private TreeMap<String, LatencyHistogram> histograms =
+      new TreeMap<String, LatencyHistogram>();
+
+
+   /**
+    * Record the time spent in one phase of an event.
+    *
+    * @param type    event type, e.g. "button"
+    * @param phase   event phase
+    * @param micros  time spent in microseconds
+    */
+
+   public synchronized void record(String type, Phase phase, long micros) {
+      get(type, phase.getName()).record(micros);
+   }
+
+
+   /**
+    * Add a histogram for an event type and phase.
+    *
+    * @param type   event type
+    * @param phase  phase name
+    * @param h      histogram to merge into the existing one
+    */
+
+   public synchronized void add(String type, String phase,
+                                LatencyHistogram h) {
+      get(type, phase).merge(h);
+   }
+
+
+   /**
+    * Merge another set of timings into this one.
+    *
+    * @param other  the timings to merge
+    */
+
+   public synchronized void merge(EventTimings other) {
+      for (Map.Entry<String, LatencyHistogram> e:
+              other.getHistograms().entrySet()) {
+         LatencyHistogram h = this.histograms.get(e.getKey());
+         if (h == null) {
+            h = new LatencyHistogram();
+            this.histograms.put(e.getKey(), h);
+         }
+         h.merge(e.getValue());
+      }
+   }
+
+
+   /**
+    * Whether any timings have been recorded.
+    *
+    * @return true if no timings have been recorded
+    */
+
+   public synchronized boolean isEmpty() {
+      return this.histograms.isEmpty();
+   }
+
+
+   /**
+    * Get a copy of the histograms, keyed by "type/phase".
+    *
+    * @return map of histograms in key order
+    */
+
+   public synchronized TreeMap<String, LatencyHistogram> getHistograms() {
+      return new TreeMap<String, LatencyHistogram>(this.histograms);
+   }
+
+
+   /**
+    * Get the "type/phase" keys ordered by total time spent, largest
+    * first.
+    *
+    * @return keys, slowest first
+    */
+
+   public synchronized ArrayList<String> getSlowest() {
+      ArrayList<String> keys = new ArrayList<String>(this.histograms.keySet());
+
+      Collections.sort(keys, new Comparator<String>() {
+         public int compare(String a, String b) {
+            long ta = histograms.get(a).getTotal();
+            long tb = histograms.get(b).getTotal();
+            return (ta < tb) ? 1 : ((ta > tb) ? -1 : a.compareTo(b));
+         }
+      });
+
+      return keys;
+   }
+
+
+   /**
+    * Write these timings into the suite report.
+    *
+    * <p>The result is an &lt;eventtimings&gt; element containing one
+    * &lt;timing&gt; element per event type and phase.  Bucket counts
+    * are included so that histograms can be merged later.</p>
+    *
+    * @param w       the suite report
+    * @param indent  indentation for the outer element
+    * @throws XMLStreamException if the report cannot be written
+    */
+
+   public synchronized void writeXML(XMLStreamWriter w, String indent)
+      throws XMLStreamException {
+      w.writeCharacters(indent);
+      w.writeStartElement("eventtimings");
+      w.writeCharacters("\n");
+
+      for (Map.Entry<String, LatencyHistogram> e:
+              this.histograms.entrySet()) {
+         String key = e.getKey();
+         int slash = key.indexOf('/');
+         LatencyHistogram h = e.getValue();
+
+         w.writeCharacters(indent + "\t");
+         w.writeEmptyElement("timing");
+         w.writeAttribute("type", key.substring(0, slash));
+         w.writeAttribute("phase", key.substring(slash + 1));
+         w.writeAttribute("count", String.valueOf(h.getCount()));
+         w.writeAttribute("total", String.valueOf(h.getTotal()));
+         w.writeAttribute("max", String.valueOf(h.getMax()));
+         w.writeAttribute("p50", String.valueOf(h.getValueAtPercentile(50)));
+         w.writeAttribute("p95", String.valueOf(h.getValueAtPercentile(95)));
+         w.writeAttribute("buckets", h.encodeBuckets());
+         w.writeCharacters("\n");
+      }
+
+      w.writeCharacters(indent);
+      w.writeEndElement();
+      w.writeCharacters("\n");
+   }
+
+
+   /**
+    * Get the histogram for an event type and phase, creating it if
+    * necessary.
+    */
+
+   private LatencyHistogram get(String type, String phase) {
+      String key = type + "/" + phase;
+      LatencyHistogram h = this.histograms.get(key);
+
+      if (h == null) {
+         h = new LatencyHistogram();
+         this.histograms.put(key, h);
+      }
+
+      return h;
+   }
+}
@@ -18,7 +18,11 @@ package org.sugarcrm.voodoodriver;
 
 import java.io.File;
 import java.util.Date;
+import org.apache.commons.io.FileUtils;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.HasInputDevices;
 import org.openqa.selenium.Mouse;
+import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.firefox.FirefoxBinary;
 import org.openqa.selenium.firefox.FirefoxDriver;
 import org.openqa.selenium.firefox.FirefoxProfile;
@@ -48,9 +52,29 @@ public class Firefox extends Browser {
    private File webDriverLogDirectory = null;
 
 
+   /**
+    * Customized profile from which each new browser's profile is
+    * copied, or null until the first launch.
+    */
+
+   private File profileTemplate = null;
+
+
+   /**
+    * Profile entries left out of the template.
+    */
+
+   private static final String[] TEMPLATE_EXCLUDES = {
+      "parent.lock", "lock", ".parentlock", "Cache", "cache2",
+      "OfflineCache", "startupCache", "sessionstore.js", "sessionstore.bak"
+   };
+
+
    /**
     * Set this object's download directory.
     *
+    * This must be called before the first browser is launched.
+    *
     * @param dir  path to the download directory
     */
 
@@ -85,11 +109,79 @@ public class Firefox extends Browser {
 
 
    /**
-    * Create a new firefox browser instance.
+    * Launch a new firefox browser instance.
+    *
+    * <p>The profile is copied from the run's profile template, which
+    * already holds the customized preferences and the WebDriver
+    * extension.  Only the log file locations, which change with each
+    * launch, are set here.</p>
+    *
+    * <p>A headless browser is requested through Firefox's
+    * MOZ_HEADLESS environment variables, which also give its window
+    * size.</p>
+    *
+    * @return the new {@link WebDriver}
     */
 
-   public void newBrowser() {
+   protected WebDriver launchDriver() {
       FirefoxBinary b = new FirefoxBinary();
+      FirefoxProfile p = new FirefoxProfile(getProfileTemplate());
+
+      if (isHeadless()) {
+         Dimension size = getWindowSize();
+         b.setEnvironmentProperty("MOZ_HEADLESS", "1");
+         b.setEnvironmentProperty("MOZ_HEADLESS_WIDTH",
+                                  String.valueOf(size.getWidth()));
+         b.setEnvironmentProperty("MOZ_HEADLESS_HEIGHT",
+                                  String.valueOf(size.getHeight()));
+      }
+
+      if (this.webDriverLogDirectory != null) {
+         File wdl = makeLogfileName(this.webDriverLogDirectory, "webdriver");
+         File fl = makeLogfileName(this.webDriverLogDirectory, "firefox");
+
+         System.out.println("(*) Creating WebDriver log " + wdl);
+         p.setPreference("webdriver.log.file", wdl.toString());
+
+         System.out.println("(*) Creating Firefox log " + fl);
+         p.setPreference("webdriver.firefox.logfile", fl.toString());
+      }
+
+      DesiredCapabilities c = new DesiredCapabilities();
+      c.setCapability("unexpectedAlertBehaviour", "ignore");
+
+      return new FirefoxDriver(b, p, c);
+   }
+
+
+   /**
+    * Get the profile template, creating it on first use.
+    *
+    * @return the template directory
+    */
+
+   private synchronized File getProfileTemplate() {
+      if (this.profileTemplate == null) {
+         this.profileTemplate = makeProfileTemplate();
+      }
+
+      return this.profileTemplate;
+   }
+
+
+   /**
+    * Build the profile template.
+    *
+    * <p>The --profile directory, or a new anonymous profile, is
+    * customized and laid out on disk once.  Caches and lock files are
+    * then removed, since a new session does not need them and they
+    * are usually the bulk of a well-used profile.  The template is
+    * deleted when VooDooDriver exits.</p>
+    *
+    * @return the template directory
+    */
+
+   private File makeProfileTemplate() {
       FirefoxProfile p = null;
       if (this.profile == null) {
          p = new FirefoxProfile();
@@ -117,23 +209,21 @@ public class Firefox extends Browser {
          p.setPreference("browser.download.useDownloadDir", true);
       }
 
-      if (this.webDriverLogDirectory != null) {
-         File wdl = makeLogfileName(this.webDriverLogDirectory, "webdriver");
-         File fl = makeLogfileName(this.webDriverLogDirectory, "firefox");
-
-         System.out.println("(*) Creating WebDriver log " + wdl);
-         p.setPreference("webdriver.log.file", wdl.toString());
+      final File template = p.layoutOnDisk();
 
-         System.out.println("(*) Creating Firefox log " + fl);
-         p.setPreference("webdriver.firefox.logfile", fl.toString());
+      for (String name: TEMPLATE_EXCLUDES) {
+         FileUtils.deleteQuietly(new File(template, name));
       }
 
-      DesiredCapabilities c = new DesiredCapabilities();
-      c.setCapability("unexpectedAlertBehaviour", "ignore");
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+               FileUtils.deleteQuietly(template);
+            }
+         });
+
+      System.out.println("(*)Firefox profile template: " + template);
 
-      FirefoxDriver ff = new FirefoxDriver(b, p, c);
-      this.setDriver(ff);
-      this.setBrowserOpened();
+      return template;
    }
 
 
@@ -149,25 +239,18 @@ public class Firefox extends Browser {
     */
 
    public void alertHack(boolean alert) {
-      String alert_js = "var old_alert = window.alert;\n" +
-         "var old_confirm = window.confirm;\n" +
-         "window.alert = function() {return " + alert + ";};\n" +
-         "window.confirm = function() {return " + alert + ";};\n" +
-         "window.onbeforeunload = null;\n" +
-         "var result = 0;\n" +
-         "result;\n";
-
-      this.executeJS(alert_js, null);
-
+      this.replaceAlerts(alert);
    }
 
 
    /**
     * Force the browser window to close via the native operating system.
+    *
+    * Only the processes started for this browser are killed.
     */
 
    public void forceClose() {
-      OSInfo.killProcesses(OSInfo.getProcessIDs("firefox"));
+      this.killProcesses("firefox");
       this.setBrowserClosed();
    }
 
@@ -179,6 +262,6 @@ public class Firefox extends Browser {
     */
 
    public Mouse getMouse() {
-      return ((FirefoxDriver)this.getDriver()).getMouse();
+      return ((HasInputDevices)this.getDriver()).getMouse();
    }
 }
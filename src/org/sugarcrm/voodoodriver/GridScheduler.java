@@ -0,0 +1,271 @@
+/*
+ * Copyright 2011-2012 SugarCRM Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You
+ * may may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  Please see the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package org.sugarcrm.voodoodriver;
+
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+/**
+ * Runs suites and tests across several remote WebDriver servers.
+ *
+ * <p>Each server is given a capacity, the number of browsers it can
+ * run at once, and gets that many worker slots.  Each slot runs one
+ * suite or test at a time in a child VooDooDriver process using
+ * --remote, taking the next job from a shared queue as soon as it is
+ * free.  Faster and larger servers therefore take more of the work.
+ * The slots are started in capacity-weighted round-robin order, so a
+ * run with fewer jobs than slots is still spread in proportion to
+ * capacity.</p>
+ *
+ * <p>Child processes isolate each job's browser, logging and reports.
+ * All children write to the same result directory, so the usual
+ * VddLogConverter run over it covers the whole grid run.</p>
+ */
+
+public class GridScheduler {
+
+   /**
+    * A WebDriver server and its share of the work.
+    */
+
+   private static class Endpoint {
+      URL url;
+      int capacity;
+      int slots = 0;
+      int jobs = 0;
+      int failures = 0;
+
+      Endpoint(URL url, int capacity) {
+         this.url = url;
+         this.capacity = capacity;
+      }
+   }
+
+
+   /**
+    * A suite or test to run, as the option that runs it.
+    */
+
+   private static class Job {
+      String option;
+      String file;
+
+      Job(String option, String file) {
+         this.option = option;
+         this.file = file;
+      }
+   }
+
+
+   private ArrayList<Endpoint> endpoints = new ArrayList<Endpoint>();
+   private LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+
+
+   /**
+    * Create a scheduler.
+    *
+    * @param grid  server URLs mapped to their capacities, as given
+    *              with --grid
+    * @throws VDDException if a URL or capacity is invalid
+    */
+
+   public GridScheduler(VDDHash grid) throws VDDException {
+      for (Map.Entry<String, Object> e: grid.entrySet()) {
+         int capacity;
+         URL url;
+
+         try {
+            url = new URL(e.getKey());
+         } catch (MalformedURLException ex) {
+            throw new VDDException("Invalid grid server URL '" +
+                                   e.getKey() + "'", ex);
+         }
+
+         try {
+            capacity = Integer.parseInt(e.getValue().toString());
+         } catch (NumberFormatException ex) {
+            capacity = 0;
+         }
+         if (capacity < 1) {
+            throw new VDDException("Invalid capacity '" + e.getValue() +
+                                   "' for grid server " + url);
+         }
+
+         this.endpoints.add(new Endpoint(url, capacity));
+      }
+   }
+
+
+   /**
+    * Queue a suite.
+    *
+    * @param file  the suite file
+    */
+
+   public void addSuite(String file) {
+      this.queue.add(new Job("suite", file));
+   }
+
+
+   /**
+    * Queue a test.
+    *
+    * @param file  the test file
+    */
+
+   public void addTest(String file) {
+      this.queue.add(new Job("test", file));
+   }
+
+
+   /**
+    * Run all queued jobs and wait for them to finish.
+    *
+    * @param command  the command that starts a child VooDooDriver,
+    *                 with the options every job shares
+    * @return the number of jobs whose VooDooDriver process failed
+    */
+
+   public int run(final List<String> command) {
+      int total = 0;
+      int jobs = this.queue.size();
+      ArrayList<Thread> workers = new ArrayList<Thread>();
+
+      for (Endpoint e: this.endpoints) {
+         total += e.capacity;
+      }
+
+      System.out.printf("(*)Running %d jobs on %d grid servers, %d slots.\n",
+                        jobs, this.endpoints.size(), total);
+
+      for (int k = 0; k < Math.min(total, jobs); k++) {
+         final Endpoint e = nextSlot();
+         Thread t = new Thread(new Runnable() {
+               public void run() {
+                  Job j;
+                  while ((j = queue.poll()) != null) {
+                     runJob(e, j, command);
+                  }
+               }
+            }, "grid-" + e.url.getHost() + "-" + e.slots);
+
+         workers.add(t);
+         t.start();
+      }
+
+      for (Thread t: workers) {
+         try {
+            t.join();
+         } catch (InterruptedException ex) {
+            System.out.println("(!)Interrupted waiting for grid jobs.");
+            break;
+         }
+      }
+
+      int failures = 0;
+      for (Endpoint e: this.endpoints) {
+         System.out.printf("(*)Grid server %s: %d jobs, %d failed.\n",
+                           e.url, e.jobs, e.failures);
+         failures += e.failures;
+      }
+
+      return failures;
+   }
+
+
+   /**
+    * Pick the server for the next worker slot.
+    *
+    * This is the server with the fewest slots for its capacity.
+    */
+
+   private Endpoint nextSlot() {
+      Endpoint best = null;
+
+      for (Endpoint e: this.endpoints) {
+         if (best == null ||
+             (long)(e.slots + 1) * best.capacity <
+             (long)(best.slots + 1) * e.capacity) {
+            best = e;
+         }
+      }
+
+      best.slots++;
+
+      return best;
+   }
+
+
+   /**
+    * Run one job in a child VooDooDriver.
+    *
+    * <p>The child's output is discarded; it is already in the
+    * child's own voodoo.log entries in the result directory.</p>
+    */
+
+   private void runJob(Endpoint e, Job j, List<String> command) {
+      ArrayList<String> cmd = new ArrayList<String>(command);
+      int status;
+
+      cmd.add("--remote=" + e.url);
+      cmd.add("--" + j.option + "=" + j.file);
+
+      System.out.printf("(*)Starting %s %s on %s.\n", j.option, j.file, e.url);
+
+      try {
+         ProcessBuilder pb = new ProcessBuilder(cmd);
+         pb.redirectErrorStream(true);
+         Process proc = pb.start();
+         proc.getOutputStream().close();
+
+         InputStream in = proc.getInputStream();
+         byte[] buf = new byte[8192];
+         while (in.read(buf) >= 0) {
+            /* Discard. */
+         }
+         in.close();
+
+         status = proc.waitFor();
+      } catch (java.io.IOException ex) {
+         System.out.printf("(!)Failed to run %s %s on %s: %s\n",
+                           j.option, j.file, e.url, ex);
+         status = -1;
+      } catch (InterruptedException ex) {
+         status = -1;
+      }
+
+      synchronized (this) {
+         e.jobs++;
+         if (status != 0) {
+            e.failures++;
+         }
+      }
+
+      if (status == 0) {
+         System.out.printf("(*)Finished %s %s on %s.\n", j.option, j.file, e.url);
+      } else {
+         System.out.printf("(!)%s %s on %s failed, exit status %d.\n",
+                           j.option, j.file, e.url, status);
+      }
+   }
+}
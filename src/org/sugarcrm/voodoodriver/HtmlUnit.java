@@ -0,0 +1,155 @@
+/*
+ * Copyright 2011-2012 SugarCRM Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You
+ * may may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  Please see the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package org.sugarcrm.voodoodriver;
+
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.HasInputDevices;
+import org.openqa.selenium.Mouse;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+
+
+/**
+ * Class representing the HtmlUnit headless browser.
+ *
+ * <p>HtmlUnit runs inside the VooDooDriver JVM, so it needs neither a
+ * display nor a separate browser process.  It suits smoke suites and
+ * machines without a display server.  Screenshots, downloads and
+ * window sizing are not available.</p>
+ */
+
+public class HtmlUnit extends Browser {
+
+
+   /**
+    * Set this object's download directory.
+    *
+    * Not applicable to HtmlUnit.
+    *
+    * @param dir  path to the download directory
+    */
+
+   public void setDownloadDirectory(String dir) {
+   }
+
+
+   /**
+    * Launch a new HtmlUnit browser instance, with javascript enabled.
+    *
+    * @return the new {@link WebDriver}
+    */
+
+   protected WebDriver launchDriver() {
+      return new HtmlUnitDriver(true);
+   }
+
+
+   /**
+    * Maximize the browser window.
+    *
+    * HtmlUnit has no window, so this does nothing.
+    */
+
+   public void maximize() {
+   }
+
+
+   /**
+    * Restore the browser window.
+    *
+    * HtmlUnit has no window, so this does nothing.
+    */
+
+   public void restore() {
+   }
+
+
+   /**
+    * Resize the browser window.
+    *
+    * HtmlUnit has no window, so this does nothing.
+    *
+    * @param size  the new window size
+    */
+
+   public void resize(Dimension size) {
+   }
+
+
+   /**
+    * Whether browsers are launched without a visible window.
+    *
+    * @return true, always
+    */
+
+   public boolean isHeadless() {
+      return true;
+   }
+
+
+   /**
+    * Whether launching this browser starts processes on this machine.
+    *
+    * HtmlUnit runs inside the VooDooDriver JVM.
+    *
+    * @return false, always
+    */
+
+   protected boolean startsProcesses() {
+      return false;
+   }
+
+
+   /**
+    * Prevent javascript alert() windows from appearing.
+    *
+    * @param alert whether to allow alert() windows
+    */
+
+   public void alertHack(boolean alert) {
+      this.replaceAlerts(alert);
+   }
+
+
+   /**
+    * Force the browser to close.
+    *
+    * There is no browser process to kill, so the driver is simply
+    * quit, ignoring any error.
+    */
+
+   public void forceClose() {
+      try {
+         this.getDriver().quit();
+      } catch (WebDriverException e) {
+         // Closed regardless.
+      }
+      this.setBrowserClosed();
+   }
+
+
+   /**
+    * Get the {@link Mouse} object for access to the raw input device.
+    *
+    * @return the {@link Mouse} device for this browser
+    */
+
+   public Mouse getMouse() {
+      return ((HasInputDevices)this.getDriver()).getMouse();
+   }
+}
@@ -16,7 +16,9 @@
 
 package org.sugarcrm.voodoodriver;
 
+import org.openqa.selenium.HasInputDevices;
 import org.openqa.selenium.Mouse;
+import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.ie.InternetExplorerDriver;
 
 
@@ -42,21 +44,39 @@ public class IE extends Browser {
 
 
    /**
-    * Create a new IE browser instance.
+    * Set whether to launch browsers without a visible window.
+    *
+    * IE cannot run headless, so this is ignored.
+    *
+    * @param headless  true to launch headless browsers
+    */
+
+   public void setHeadless(boolean headless) {
+      if (headless) {
+         System.out.println("(W)IE cannot run headless, ignoring --headless.");
+      }
+   }
+
+
+   /**
+    * Launch a new IE browser instance.
+    *
+    * @return the new {@link WebDriver}
     */
 
-   public void newBrowser() {
-      this.setDriver(new InternetExplorerDriver());
-      this.setBrowserOpened();
+   protected WebDriver launchDriver() {
+      return new InternetExplorerDriver();
    }
 
 
    /**
     * Force the browser window to close via the native operating system.
+    *
+    * Only the processes started for this browser are killed.
     */
 
    public void forceClose() {
-      OSInfo.killProcesses(OSInfo.getProcessIDs("iexplorer"));
+      this.killProcesses("iexplorer");
       this.setBrowserClosed();
    }
 
@@ -73,14 +93,7 @@ public class IE extends Browser {
     */
 
    public void alertHack(boolean alert) {
-      String alert_js =  "var old_alert = window.alert;\n" +
-         "var old_confirm = window.confirm;\n"+
-         "window.alert = function(){return " + alert + ";};\n"+
-         "window.confirm = function(){return " + alert + ";};\n"+
-         "window.onbeforeunload = null;\n"+
-         "var result = 0;\nresult;\n";
-
-      this.executeJS(alert_js, null);
+      this.replaceAlerts(alert);
    }
 
 
@@ -91,6 +104,6 @@ public class IE extends Browser {
     */
 
    public Mouse getMouse() {
-      return ((InternetExplorerDriver)this.getDriver()).getMouse();
+      return ((HasInputDevices)this.getDriver()).getMouse();
    }
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2011-2012 SugarCRM Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You
+ * may may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  Please see the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package org.sugarcrm.voodoodriver;
+
+
+/**
+ * Fixed-size histogram of latencies.
+ *
+ * <p>Values are bucketed in the same log-linear fashion as
+ * HdrHistogram: each power of two is split into eight equal
+ * sub-buckets, so any recorded value is known to within 12.5%
+ * regardless of magnitude, and the whole range of a long fits in
+ * fewer than 500 buckets.  Histograms can be merged, which allows
+ * per-test histograms to be combined into per-suite and per-run
+ * figures.</p>
+ *
+ * <p>Units are up to the caller.  VooDooDriver records
+ * microseconds.</p>
+ */
+
+public class LatencyHistogram {
+
+   /**
+    * log2 of the number of sub-buckets per power of two.
+    */
+
+   private final static int SUB_BITS = 3;
+
+   /**
+    * Number of sub-buckets per power of two.
+    */
+
+   private final static int SUB_COUNT = 1 << SUB_BITS;
+
+   /**
+    * Total number of buckets.
+    */
+
+   private final static int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+   /**
+    * Count of values in each bucket.
+    */
+
+   private long[] counts = new long[BUCKETS];
+
+   /**
+    * Number of values recorded.
+    */
+
+   private long count = 0;
+
+   /**
+    * Sum of all values recorded.
+    */
+
+   private long total = 0;
+
+   /**
+    * Largest value recorded.
+    */
+
+   private long max = 0;
+
+
+   /**
+    * Record a value.
+    *
+    * @param value  the value, negative values are recorded as 0
+    */
+
+   public void record(long value) {
+      if (value < 0) {
+         value = 0;
+      }
+
+      this.counts[bucket(value)] += 1;
+      this.count += 1;
+      this.total += value;
+      if (value > this.max) {
+         this.max = value;
+      }
+   }
+
+
+   /**
+    * Add the contents of another histogram to this one.
+    *
+    * @param other  the histogram to add
+    */
+
+   public void merge(LatencyHistogram other) {
+      for (int k = 0; k < BUCKETS; k++) {
+         this.counts[k] += other.counts[k];
+      }
+      this.count += other.count;
+      this.total += other.total;
+      if (other.max > this.max) {
+         this.max = other.max;
+      }
+   }
+
+
+   /**
+    * Get the number of values recorded.
+    *
+    * @return number of values
+    */
+
+   public long getCount() {
+      return this.count;
+   }
+
+
+   /**
+    * Get the sum of the values recorded.
+    *
+    * @return sum of values
+    */
+
+   public long getTotal() {
+      return this.total;
+   }
+
+
+   /**
+    * Get the largest value recorded.
+    *
+    * @return largest value
+    */
+
+   public long getMax() {
+      return this.max;
+   }
+
+
+   /**
+    * Get the value at a given percentile.
+    *
+    * The value returned is the upper bound of the bucket containing
+    * the percentile, never more than the largest value recorded.
+    *
+    * @param percentile  percentile between 0 and 100
+    * @return the value at that percentile, or 0 if the histogram is empty
+    */
+
+   public long getValueAtPercentile(double percentile) {
+      if (this.count == 0) {
+         return 0;
+      }
+
+      long rank = (long)Math.ceil(percentile / 100.0 * this.count);
+      if (rank < 1) {
+         rank = 1;
+      }
+
+      long seen = 0;
+      for (int k = 0; k < BUCKETS; k++) {
+         seen += this.counts[k];
+         if (seen >= rank) {
+            return Math.min(upperBound(k), this.max);
+         }
+      }
+
+      return this.max;
+   }
+
+
+   /**
+    * Encode the non-empty buckets of this histogram.
+    *
+    * The encoding is a comma separated list of
+    * <code>bucket:count</code> pairs, suitable for an XML attribute.
+    *
+    * @return encoded bucket counts
+    */
+
+   public String encodeBuckets() {
+      StringBuilder sb = new StringBuilder();
+
+      for (int k = 0; k < BUCKETS; k++) {
+         if (this.counts[k] != 0) {
+            if (sb.length() > 0) {
+               sb.append(',');
+            }
+            sb.append(k).append(':').append(this.counts[k]);
+         }
+      }
+
+      return sb.toString();
+   }
+
+
+   /**
+    * Rebuild a histogram from its encoded form.
+    *
+    * @param buckets  bucket counts, as from {@link #encodeBuckets}
+    * @param total    sum of the values recorded
+    * @param max      largest value recorded
+    * @return the decoded histogram
+    * @throws NumberFormatException if the bucket list is malformed
+    */
+
+   public static LatencyHistogram decode(String buckets, long total,
+                                         long max) {
+      LatencyHistogram h = new LatencyHistogram();
+
+      for (String pair: buckets.split(",")) {
+         if (pair.length() == 0) {
+            continue;
+         }
+
+         int colon = pair.indexOf(':');
+         if (colon < 0) {
+            throw new NumberFormatException("Bad bucket '" + pair + "'");
+         }
+
+         int k = Integer.parseInt(pair.substring(0, colon));
+         long n = Long.parseLong(pair.substring(colon + 1));
+         if (k < 0 || k >= BUCKETS) {
+            throw new NumberFormatException("Bad bucket index " + k);
+         }
+
+         h.counts[k] += n;
+         h.count += n;
+      }
+
+      h.total = total;
+      h.max = max;
+
+      return h;
+   }
+
+
+   /**
+    * Find the bucket for a value.
+    *
+    * @param value  a non-negative value
+    * @return bucket index
+    */
+
+   private static int bucket(long value) {
+      if (value < SUB_COUNT) {
+         return (int)value;
+      }
+
+      int msb = 63 - Long.numberOfLeadingZeros(value);
+      int sub = (int)(value >>> (msb - SUB_BITS)) & (SUB_COUNT - 1);
+
+      return (msb - SUB_BITS + 1) * SUB_COUNT + sub;
+   }
+
+
+   /**
+    * Get the largest value that falls in a bucket.
+    *
+    * @param bucket  bucket index
+    * @return largest value in the bucket
+    */
+
+   private static long upperBound(int bucket) {
+      if (bucket < SUB_COUNT) {
+         return bucket;
+      }
+
+      int msb = bucket / SUB_COUNT + SUB_BITS - 1;
+      long sub = bucket % SUB_COUNT;
+      long width = 1L << (msb - SUB_BITS);
+      long low = (SUB_COUNT + sub) << (msb - SUB_BITS);
+
+      return low + width - 1;
+   }
+}
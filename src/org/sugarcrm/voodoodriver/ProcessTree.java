@@ -0,0 +1,446 @@
+/*
+ * Copyright 2011-2012 SugarCRM Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You
+ * may may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  Please see the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package org.sugarcrm.voodoodriver;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+
+/**
+ * The processes started for one browser session.
+ *
+ * <p>WebDriver starts the browser, and for Chrome and IE a driver
+ * server, as child processes of VooDooDriver.  The children that
+ * appear while a browser is launched are claimed for it, together
+ * with their descendants.  Killing the session then kills only that
+ * process tree, leaving other VooDooDriver runs on the same machine,
+ * and their browsers, alone.</p>
+ *
+ * <p>Launches must be serialized with {@link #LAUNCH_LOCK} so that
+ * each session claims only its own children.</p>
+ */
+
+public class ProcessTree {
+
+   /**
+    * Held while launching a browser and claiming its processes.
+    */
+
+   public static final Object LAUNCH_LOCK = new Object();
+
+
+   /**
+    * Children of this JVM claimed by live sessions.
+    */
+
+   private static final HashSet<Integer> claimed = new HashSet<Integer>();
+
+
+   /**
+    * Times to look for processes that survived a kill.
+    */
+
+   private static final int SURVIVOR_CHECKS = 10;
+
+
+   /**
+    * Milliseconds between looks for processes that survived a kill.
+    */
+
+   private static final int SURVIVOR_WAIT = 100;
+
+
+   /**
+    * A process table entry.
+    */
+
+   private static class Proc {
+      int ppid;
+      String name;
+
+      Proc(int ppid, String name) {
+         this.ppid = ppid;
+         this.name = name;
+      }
+   }
+
+
+   /**
+    * The claimed children of this JVM.
+    */
+
+   private ArrayList<Integer> roots;
+
+
+   /**
+    * All processes in the tree when it was claimed, with their names.
+    */
+
+   private HashMap<Integer, String> members;
+
+
+   private ProcessTree(ArrayList<Integer> roots,
+                       HashMap<Integer, String> members) {
+      this.roots = roots;
+      this.members = members;
+   }
+
+
+   /**
+    * Claim the children of this JVM not yet claimed by another session.
+    *
+    * This should be called, holding {@link #LAUNCH_LOCK}, right after
+    * a browser is launched.
+    *
+    * @return the new session's processes, or null if they cannot be
+    *         determined on this system
+    */
+
+   public static ProcessTree claimNew() {
+      int self = getPid();
+      HashMap<Integer, Proc> table = readTable();
+
+      if (self < 0 || table == null) {
+         return null;
+      }
+
+      ArrayList<Integer> roots = new ArrayList<Integer>();
+
+      synchronized (claimed) {
+         for (Map.Entry<Integer, Proc> e: table.entrySet()) {
+            if (e.getValue().ppid == self &&
+                !claimed.contains(e.getKey()) &&
+                !isScanner(e.getValue().name)) {
+               roots.add(e.getKey());
+            }
+         }
+         claimed.addAll(roots);
+      }
+
+      HashMap<Integer, String> members = new HashMap<Integer, String>();
+      for (int pid: descendants(table, roots)) {
+         members.put(pid, table.get(pid).name);
+      }
+
+      return new ProcessTree(roots, members);
+   }
+
+
+   /**
+    * Kill every process in the tree.
+    *
+    * <p>The tree is looked up again first, so processes started since
+    * it was claimed are included.  Processes from the original tree
+    * are also killed if they have been orphaned, as long as their
+    * PID still belongs to a process of the same name.</p>
+    *
+    * <p>Processes can exit on their own while this runs, so the kill
+    * command's status is not trusted.  Instead the table is read
+    * again afterwards, and only processes still running count as a
+    * failure to kill.</p>
+    *
+    * @return whether the processes could be found, false only when
+    *         the process table cannot be read
+    */
+
+   public boolean kill() {
+      HashMap<Integer, Proc> table = readTable();
+
+      release();
+
+      if (table == null) {
+         return false;
+      }
+
+      ArrayList<Integer> live = new ArrayList<Integer>();
+      for (int pid: this.roots) {
+         if (table.containsKey(pid)) {
+            live.add(pid);
+         }
+      }
+      HashSet<Integer> tree = descendants(table, live);
+
+      HashSet<Integer> orphans = new HashSet<Integer>();
+      for (Map.Entry<Integer, String> m: this.members.entrySet()) {
+         Proc p = table.get(m.getKey());
+         if (p != null && p.name.equals(m.getValue()) &&
+             !tree.contains(m.getKey())) {
+            orphans.add(m.getKey());
+         }
+      }
+
+      /* Tops of the orphaned subtrees, which take the rest with them. */
+      for (int pid: orphans) {
+         if (!orphans.contains(table.get(pid).ppid)) {
+            live.add(pid);
+         }
+      }
+
+      HashSet<Integer> pids = descendants(table, live);
+      if (pids.isEmpty()) {
+         return true;
+      }
+
+      ArrayList<String> cmd = new ArrayList<String>();
+      if (OSInfo.getOS() == SupportedOS.WINDOWS) {
+         cmd.add("taskkill.exe");
+         cmd.add("/T");
+         cmd.add("/F");
+         for (int pid: live) {
+            cmd.add("/PID");
+            cmd.add(String.valueOf(pid));
+         }
+      } else {
+         cmd.add("kill");
+         cmd.add("-9");
+         for (int pid: pids) {
+            cmd.add(String.valueOf(pid));
+         }
+      }
+
+      run(cmd);
+
+      HashSet<Integer> left = survivors(table, pids);
+      if (!left.isEmpty()) {
+         System.out.println("(W)Browser processes " + left +
+                            " are still running after kill.");
+      } else {
+         System.out.println("(*)Killed browser processes " + pids + ".");
+      }
+
+      return true;
+   }
+
+
+   /**
+    * Find the processes that are still running after a kill.
+    *
+    * The table is checked a few times, as killed processes may take a
+    * moment to disappear from it.
+    *
+    * @param before  the table the processes were found in
+    * @param pids    the processes killed
+    * @return the processes still running, empty if the table cannot
+    *         be read
+    */
+
+   private static HashSet<Integer> survivors(HashMap<Integer, Proc> before,
+                                             HashSet<Integer> pids) {
+      HashSet<Integer> left = new HashSet<Integer>();
+
+      for (int tries = 0; tries < SURVIVOR_CHECKS; tries++) {
+         HashMap<Integer, Proc> table = readTable();
+         if (table == null) {
+            return new HashSet<Integer>();
+         }
+
+         left.clear();
+         for (int pid: pids) {
+            Proc p = table.get(pid);
+            if (p != null && p.name.equals(before.get(pid).name)) {
+               left.add(pid);
+            }
+         }
+
+         if (left.isEmpty()) {
+            break;
+         }
+
+         try {
+            Thread.sleep(SURVIVOR_WAIT);
+         } catch (InterruptedException e) {
+            break;
+         }
+      }
+
+      return left;
+   }
+
+
+   /**
+    * Give up the claim on the tree, after the session has ended.
+    */
+
+   public void release() {
+      synchronized (claimed) {
+         claimed.removeAll(this.roots);
+      }
+   }
+
+
+   /**
+    * Find the processes in the trees rooted at the given PIDs.
+    */
+
+   private static HashSet<Integer> descendants(HashMap<Integer, Proc> table,
+                                               ArrayList<Integer> roots) {
+      HashMap<Integer, ArrayList<Integer>> children =
+         new HashMap<Integer, ArrayList<Integer>>();
+      for (Map.Entry<Integer, Proc> e: table.entrySet()) {
+         ArrayList<Integer> c = children.get(e.getValue().ppid);
+         if (c == null) {
+            c = new ArrayList<Integer>();
+            children.put(e.getValue().ppid, c);
+         }
+         c.add(e.getKey());
+      }
+
+      HashSet<Integer> found = new HashSet<Integer>();
+      ArrayList<Integer> queue = new ArrayList<Integer>();
+      for (int pid: roots) {
+         if (table.containsKey(pid)) {
+            queue.add(pid);
+         }
+      }
+
+      while (!queue.isEmpty()) {
+         int pid = queue.remove(queue.size() - 1);
+         if (found.add(pid) && children.containsKey(pid)) {
+            queue.addAll(children.get(pid));
+         }
+      }
+
+      return found;
+   }
+
+
+   /**
+    * Get this JVM's process ID.
+    *
+    * @return the PID, or -1 if it is unknown
+    */
+
+   private static int getPid() {
+      String name = ManagementFactory.getRuntimeMXBean().getName();
+
+      try {
+         return Integer.parseInt(name.substring(0, name.indexOf('@')));
+      } catch (RuntimeException e) {
+         return -1;
+      }
+   }
+
+
+   /**
+    * Whether a process is the one reading the process table.
+    */
+
+   private static boolean isScanner(String name) {
+      return name.equals("ps") || name.equalsIgnoreCase("wmic.exe");
+   }
+
+
+   /**
+    * Read the process table.
+    *
+    * @return the processes by PID, or null on failure
+    */
+
+   private static HashMap<Integer, Proc> readTable() {
+      HashMap<Integer, Proc> table = new HashMap<Integer, Proc>();
+      boolean windows = (OSInfo.getOS() == SupportedOS.WINDOWS);
+      ArrayList<String> cmd = new ArrayList<String>();
+      ArrayList<String> lines;
+
+      if (windows) {
+         /* CSV columns are Node,Name,ParentProcessId,ProcessId */
+         cmd.add("wmic.exe");
+         cmd.add("process");
+         cmd.add("get");
+         cmd.add("Name,ParentProcessId,ProcessId");
+         cmd.add("/format:csv");
+      } else {
+         cmd.add("ps");
+         cmd.add("-A");
+         cmd.add("-o");
+         cmd.add("pid=,ppid=,stat=,comm=");
+      }
+
+      lines = run(cmd);
+      if (lines == null) {
+         return null;
+      }
+
+      for (String line: lines) {
+         try {
+            if (windows) {
+               String[] f = line.trim().split(",");
+               if (f.length < 4) {
+                  continue;
+               }
+               table.put(Integer.valueOf(f[f.length - 1]),
+                         new Proc(Integer.parseInt(f[f.length - 2]),
+                                  f[f.length - 3]));
+            } else {
+               String[] f = line.trim().split("\\s+", 4);
+               if (f.length < 4 || f[2].startsWith("Z")) {
+                  /* Zombies have already exited. */
+                  continue;
+               }
+               String name = f[3].substring(f[3].lastIndexOf('/') + 1);
+               table.put(Integer.valueOf(f[0]),
+                         new Proc(Integer.parseInt(f[1]), name));
+            }
+         } catch (NumberFormatException e) {
+            /* Header line. */
+         }
+      }
+
+      return table;
+   }
+
+
+   /**
+    * Run a command and collect its output.
+    *
+    * @return the output lines, or null if the command failed
+    */
+
+   private static ArrayList<String> run(ArrayList<String> cmd) {
+      ArrayList<String> lines = new ArrayList<String>();
+
+      try {
+         ProcessBuilder pb = new ProcessBuilder(cmd);
+         pb.redirectErrorStream(true);
+         Process proc = pb.start();
+         proc.getOutputStream().close();
+
+         BufferedReader r =
+            new BufferedReader(new InputStreamReader(proc.getInputStream()));
+         String line;
+         while ((line = r.readLine()) != null) {
+            lines.add(line);
+         }
+         r.close();
+
+         if (proc.waitFor() != 0) {
+            return null;
+         }
+      } catch (java.io.IOException e) {
+         return null;
+      } catch (InterruptedException e) {
+         return null;
+      }
+
+      return lines;
+   }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2011-2012 SugarCRM Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You
+ * may may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  Please see the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package org.sugarcrm.voodoodriver;
+
+import java.net.URL;
+import org.openqa.selenium.HasInputDevices;
+import org.openqa.selenium.Mouse;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.Augmenter;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+
+/**
+ * Class representing a browser run by a remote WebDriver server.
+ *
+ * <p>The server may be a standalone Selenium server or a grid hub.
+ * The browser runs on the server's machine, so screenshots are taken
+ * by the browser and downloads land on that machine.</p>
+ */
+
+public class RemoteBrowser extends Browser {
+
+   /**
+    * The WebDriver server.
+    */
+
+   private URL server;
+
+
+   /**
+    * The browser to request from the server, e.g. "firefox".
+    */
+
+   private String browserName;
+
+
+   /**
+    * Create a remote browser.
+    *
+    * @param server       URL of the WebDriver server
+    * @param browserName  the browser to request from the server
+    */
+
+   public RemoteBrowser(URL server, String browserName) {
+      this.server = server;
+      this.browserName = browserName;
+   }
+
+
+   /**
+    * Get the WebDriver server URL.
+    *
+    * @return the server URL
+    */
+
+   public URL getServer() {
+      return this.server;
+   }
+
+
+   /**
+    * Set this object's download directory.
+    *
+    * Not applicable to remote browsers.
+    *
+    * @param dir  path to the download directory
+    */
+
+   public void setDownloadDirectory(String dir) {
+   }
+
+
+   /**
+    * Start a new session on the WebDriver server.
+    *
+    * The driver is augmented so that the server's screenshot support
+    * can be reached through TakesScreenshot.
+    *
+    * @return the new {@link WebDriver}
+    */
+
+   protected WebDriver launchDriver() {
+      DesiredCapabilities c = new DesiredCapabilities();
+      c.setBrowserName(this.browserName);
+      c.setJavascriptEnabled(true);
+      c.setCapability("unexpectedAlertBehaviour", "ignore");
+
+      return new Augmenter().augment(new RemoteWebDriver(this.server, c));
+   }
+
+
+   /**
+    * Whether the browser runs on this machine.
+    *
+    * @return false, always
+    */
+
+   public boolean isLocal() {
+      return false;
+   }
+
+
+   /**
+    * Whether launching this browser starts processes on this machine.
+    *
+    * The browser's processes are on the WebDriver server's machine.
+    *
+    * @return false, always
+    */
+
+   protected boolean startsProcesses() {
+      return false;
+   }
+
+
+   /**
+    * Prevent javascript alert() windows from appearing.
+    *
+    * @param alert whether to allow alert() windows
+    */
+
+   public void alertHack(boolean alert) {
+      this.replaceAlerts(alert);
+   }
+
+
+   /**
+    * Force the browser to close.
+    *
+    * The browser's processes are on another machine, so the session
+    * is quit and the server is left to clean up.
+    */
+
+   public void forceClose() {
+      try {
+         this.getDriver().quit();
+      } catch (WebDriverException e) {
+         System.out.println("(!)Failed to quit remote browser: " + e);
+      }
+      this.setBrowserClosed();
+   }
+
+
+   /**
+    * Get the {@link Mouse} object for access to the raw input device.
+    *
+    * @return the {@link Mouse} device for this browser
+    */
+
+   public Mouse getMouse() {
+      return ((HasInputDevices)this.getDriver()).getMouse();
+   }
+}
@@ -68,12 +68,28 @@ public class Reporter {
 
 
    /**
-    * Whether to terminate the current thread on error.
+    * Whether to stop the current test on error.
     */
 
    private boolean haltOnFailure = false;
 
 
+   /**
+    * Cancellation token for this test, cancelled on error when
+    * haltOnFailure is set.
+    */
+
+   private CancellationToken cancellation = new CancellationToken();
+
+
+   /**
+    * Shared store for saved HTML and screenshots, or null to save
+    * them into this test's result directory.
+    */
+
+   private ArtifactStore artifacts = null;
+
+
    /**
     * Instantiate a Reporter object.
     *
@@ -122,6 +138,7 @@ public class Reporter {
       }
 
       this.haltOnFailure = (Boolean)config.get("haltOnFailure");
+      this.artifacts = (ArtifactStore)config.get("artifactstore");
    }
 
    public void setTestName(String name) {
@@ -136,6 +153,10 @@ public class Reporter {
       this.browser = browser;
    }
 
+   public Browser getBrowser() {
+      return this.browser;
+   }
+
 
    /**
     * Set the events for saving the current HTML page.
@@ -232,21 +253,34 @@ public class Reporter {
 
 
    /**
-    * Terminate the current thread.
+    * Stop the current test.
     *
-    * There's a long discussion in the Java documentation about why
-    * using Thread.stop() is a terrible, terrible thing.  However, the
-    * alternate offered, in combination with the klunky way Java
-    * handles exceptions means that any program wanting to terminate a
-    * thread abnormally must design this ability in from the ground up
-    * -- not the case with VDD.  Consequently, despite the "dangers"
-    * involved in stopping a running thread, it's done here.  It won't
-    * matter anyways as VDD will be terminating itself shortly.
+    * Rather than terminating the test thread outright, which can
+    * leave the log file and browser in an inconsistent state, the
+    * test's cancellation token is cancelled.  The event loop checks
+    * the token between events and in its polling loops and sleeps, so
+    * the test winds down almost immediately and the log and browser
+    * can be closed cleanly.
     */
 
    private void killTestThread() {
+      if (this.cancellation.isCancelled()) {
+         return;
+      }
+
       System.err.println("(!)Error seen and haltOnFailure set: terminating.");
-      Thread.currentThread().stop();
+      this.cancellation.cancel();
+   }
+
+
+   /**
+    * Get the cancellation token for this test.
+    *
+    * @return the {@link CancellationToken} shared with the event loop
+    */
+
+   public CancellationToken getCancellationToken() {
+      return this.cancellation;
    }
 
 
@@ -273,7 +307,7 @@ public class Reporter {
       System.out.printf("%s\n", msg);
 
       try {
-         this.reportFD.write(logstr.getBytes());
+         this.reportFD.write(logstr.getBytes("UTF-8"));
       } catch (java.io.IOException e) {
          System.err.println("(!)Error writing to report file: " + e);
       }
@@ -550,15 +584,30 @@ public class Reporter {
 
    /**
     * Save the current HTML page.
+    *
+    * If an {@link ArtifactStore} is in use, the page is stored there
+    * and pages identical to ones already saved during this run cost
+    * no additional disk space.
     */
 
    public void SavePage() {
+      String pageSource = this.browser.getPageSource();
+
+      if (this.artifacts != null) {
+         try {
+            File f = this.artifacts.put(pageSource.getBytes("UTF-8"),
+                                        "html", true);
+            this.Log(String.format("HTML Saved: %s", f));
+         } catch (java.io.IOException e) {
+            this.justReportTheException(e);
+         }
+         return;
+      }
+
       String htmlFile = makeFilename("saved-html", "savedhtml",
                                      this.saveHtmlIdx, "html");
       this.saveHtmlIdx += 1;
 
-      String pageSource = this.browser.getPageSource();
-
       try {
          File f = new File(htmlFile);
          BufferedWriter bw = new BufferedWriter(new FileWriter(f));
@@ -576,6 +625,22 @@ public class Reporter {
     */
 
    public void screenshot() {
+      if (this.artifacts != null) {
+         this.Log("Taking Screenshot.");
+         byte[] png = Utils.captureScreen(this, false);
+         if (png == null) {
+            return;
+         }
+         try {
+            File f = this.artifacts.put(png, "png", false);
+            this.Log(String.format("Screenshot file: %s", f));
+            this.Log("Screenshot finished.");
+         } catch (java.io.IOException e) {
+            this.justReportTheException(e);
+         }
+         return;
+      }
+
       String screenshotFile = makeFilename("screenshots", "screenshot",
                                            this.screenshotIdx, "png");
       this.screenshotIdx += 1;
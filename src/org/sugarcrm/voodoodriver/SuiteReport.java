@@ -0,0 +1,250 @@
+/*
+ * Copyright 2011-2012 SugarCRM Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You
+ * may may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  Please see the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package org.sugarcrm.voodoodriver;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+
+/**
+ * Writer for the suite report XML file.
+ *
+ * <p>The report is written through a buffered XMLStreamWriter, so
+ * values are escaped and the file is written in large blocks rather
+ * than a line at a time.  The buffer is flushed whenever a test
+ * starts or finishes.  If VooDooDriver dies mid-run, the report
+ * therefore holds every finished test, and the summary reporter
+ * skips the last, unfinished one.</p>
+ *
+ * <p>The layout is the same as the hand-written report it replaces:
+ * a &lt;data&gt; element holding one &lt;suite&gt; per suite file,
+ * each holding one &lt;test&gt; per test run.</p>
+ *
+ * <p>Errors writing the report are printed but do not stop the
+ * run.</p>
+ */
+
+public class SuiteReport {
+
+   private OutputStream stream;
+   private XMLStreamWriter xml;
+   private boolean failed = false;
+
+
+   /**
+    * Create a suite report.
+    *
+    * @param file  the report file
+    * @throws IOException if the file cannot be created
+    */
+
+   public SuiteReport(File file) throws IOException {
+      this.stream = new BufferedOutputStream(new FileOutputStream(file),
+                                             64 * 1024);
+
+      try {
+         this.xml = XMLOutputFactory.newInstance()
+            .createXMLStreamWriter(this.stream, "UTF-8");
+         this.xml.writeStartDocument("UTF-8", "1.0");
+         this.xml.writeCharacters("\n");
+         this.xml.writeStartElement("data");
+         this.xml.writeCharacters("\n");
+      } catch (XMLStreamException e) {
+         this.stream.close();
+         throw new IOException("Unable to write " + file, e);
+      }
+   }
+
+
+   /**
+    * Start a suite.
+    *
+    * @param suiteFile  file name of the suite
+    */
+
+   public void startSuite(String suiteFile) {
+      try {
+         this.xml.writeCharacters("\t");
+         this.xml.writeStartElement("suite");
+         this.xml.writeCharacters("\n\n");
+         writeValue("\t\t", "suitefile", suiteFile);
+      } catch (XMLStreamException e) {
+         fail(e);
+      }
+   }
+
+
+   /**
+    * Start a test.
+    *
+    * @param testFile   the test file
+    * @param startTime  when the test started
+    */
+
+   public void startTest(String testFile, String startTime) {
+      try {
+         this.xml.writeCharacters("\t\t");
+         this.xml.writeStartElement("test");
+         this.xml.writeCharacters("\n");
+         writeValue("\t\t\t", "testfile", testFile);
+         writeValue("\t\t\t", "starttime", startTime);
+      } catch (XMLStreamException e) {
+         fail(e);
+      }
+
+      flush();
+   }
+
+
+   /**
+    * Finish a test.
+    *
+    * <p>The test's results are written in order, with "result"
+    * written as Passed or Failed.</p>
+    *
+    * @param stopTime  when the test finished
+    * @param runTime   the test's run time
+    * @param timings   the test's event timings, or null
+    * @param results   the test's results
+    */
+
+   public void endTest(String stopTime, String runTime, EventTimings timings,
+                       TestResults results) {
+      try {
+         writeValue("\t\t\t", "stoptime", stopTime);
+         writeValue("\t\t\t", "totaltesttime", runTime);
+
+         if (timings != null && !timings.isEmpty()) {
+            timings.writeXML(this.xml, "\t\t\t");
+         }
+
+         for (Map.Entry<String, Object> r: results.entrySet()) {
+            String key = r.getKey();
+            String value = r.getValue().toString();
+
+            if (key.contains("result")) {
+               value = (Integer.valueOf(value) != 0) ? "Failed" : "Passed";
+            }
+
+            writeValue("\t\t\t", key, value);
+         }
+
+         this.xml.writeCharacters("\t\t");
+         this.xml.writeEndElement();
+         this.xml.writeCharacters("\n\n");
+      } catch (XMLStreamException e) {
+         fail(e);
+      }
+
+      flush();
+   }
+
+
+   /**
+    * Finish a suite.
+    *
+    * @param startTime  when the suite started
+    * @param stopTime   when the suite finished
+    * @param runTime    the suite's run time
+    */
+
+   public void endSuite(String startTime, String stopTime, String runTime) {
+      try {
+         writeValue("\t\t", "starttime", startTime);
+         writeValue("\t\t", "stoptime", stopTime);
+         writeValue("\t\t", "runtime", runTime);
+         this.xml.writeCharacters("\t");
+         this.xml.writeEndElement();
+         this.xml.writeCharacters("\n");
+      } catch (XMLStreamException e) {
+         fail(e);
+      }
+
+      flush();
+   }
+
+
+   /**
+    * Finish and close the report.
+    */
+
+   public void close() {
+      try {
+         this.xml.writeEndElement();
+         this.xml.writeCharacters("\n\n");
+         this.xml.writeEndDocument();
+         this.xml.close();
+      } catch (XMLStreamException e) {
+         fail(e);
+      }
+
+      try {
+         this.stream.close();
+      } catch (IOException e) {
+         System.out.println("(!)Failed to close suite report: " + e);
+      }
+   }
+
+
+   /**
+    * Write an element holding only text, on a line of its own.
+    */
+
+   private void writeValue(String indent, String name, String value)
+      throws XMLStreamException {
+      this.xml.writeCharacters(indent);
+      this.xml.writeStartElement(name);
+      this.xml.writeCharacters(value);
+      this.xml.writeEndElement();
+      this.xml.writeCharacters("\n");
+   }
+
+
+   /**
+    * Push everything written so far to the file.
+    */
+
+   private void flush() {
+      try {
+         this.xml.flush();
+         this.stream.flush();
+      } catch (XMLStreamException e) {
+         fail(e);
+      } catch (IOException e) {
+         fail(e);
+      }
+   }
+
+
+   /**
+    * Report a write error, once.
+    */
+
+   private void fail(Exception e) {
+      if (!this.failed) {
+         System.out.println("(!)Error writing suite report: " + e);
+         this.failed = true;
+      }
+   }
+}
@@ -19,5 +19,6 @@ package org.sugarcrm.voodoodriver;
 public enum SupportedBrowser {
    FIREFOX,
    IE,
-   CHROME
+   CHROME,
+   HTMLUNIT
 }
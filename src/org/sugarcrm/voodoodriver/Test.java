@@ -18,7 +18,6 @@ package org.sugarcrm.voodoodriver;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Date;
 
 public class Test {
 
@@ -174,6 +173,7 @@ public class Test {
 
       result = CheckTestBlocked();
       if (!result) {
+         this.Browser.getCommandTrace().reset();
          eventDriver = new EventLoop(this.Browser, events, this.reporter,
                                      this.GVars, this.HiJacks, this.OldVars,
                                      this.plugins, this.testFile.getName(),
@@ -184,19 +184,21 @@ public class Test {
          }
 
          while (eventDriver.isAlive()) {
-            long elstamp = eventDriver.getThreadTime().getTime();
-            long now = (new Date()).getTime();
+            long idle = eventDriver.getIdleTime();
 
-            if (now - elstamp >
-                watchdogTimeout + eventDriver.getWaitDuration()) {
+            if (idle > watchdogTimeout + eventDriver.getWaitDuration()) {
                watchdog = true;
                eventDriver.stop();
-               this.reporter.ReportWatchDog((now - elstamp) / 1000);
+               this.reporter.ReportWatchDog(idle / 1000);
                break;
             }
 
+            /*
+             * Wait on the event loop itself rather than sleeping so
+             * that a cancelled test is noticed as soon as it ends.
+             */
             try {
-               Thread.sleep(9000);
+               eventDriver.getThread().join(9000);
             } catch (InterruptedException e) {
                // ignore
             }
@@ -209,6 +211,12 @@ public class Test {
          System.out.println("Closed???!");
       }
 
+      if (eventDriver != null) {
+         for (String line: this.Browser.getCommandTrace().summary()) {
+            this.reporter.Log(line);
+         }
+      }
+
       this.logResults();
       this.reporter.closeLog();
       return result;
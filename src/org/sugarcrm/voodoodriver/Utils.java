@@ -17,12 +17,15 @@ limitations under the License.
 package org.sugarcrm.voodoodriver;
 
 import java.awt.Dimension;
+import java.awt.GraphicsEnvironment;
 import java.awt.Rectangle;
 import java.awt.Robot;
 import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.security.MessageDigest;
 import java.util.ArrayList;
@@ -35,6 +38,7 @@ import javax.imageio.ImageIO;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 
 /**
@@ -136,8 +140,6 @@ public class Utils {
 
    public static boolean takeScreenShot(String outputFile, Reporter reporter,
                                         boolean logOK) {
-      Robot r = null;
-
       reporter.Log("Taking Screenshot.");
 
       File tmp = new File(outputFile);
@@ -148,14 +150,67 @@ public class Utils {
          reporter.Warn(msg);
       }
 
+      byte[] png = captureScreen(reporter, logOK);
+      if (png == null) {
+         return false;
+      }
+
+      try {
+         FileOutputStream out = new FileOutputStream(outputFile);
+         try {
+            out.write(png);
+         } finally {
+            out.close();
+         }
+      } catch (java.io.IOException e) {
+         if (logOK) {
+            reporter.ReportError("Screenshot failed (I/O Error)");
+            reporter.ReportException(e);
+         }
+         return false;
+      }
+
+      reporter.Log(String.format("Screenshot file: %s", outputFile));
+      reporter.Log("Screenshot finished.");
+
+      return true;
+   }
+
+
+   /**
+    * Take a screen shot and return it as PNG data.
+    *
+    * <p>The screen is captured, unless the browser is headless or
+    * remote or there is no display, in which case the browser takes
+    * a screenshot of its page instead.</p>
+    *
+    * @param reporter    {@link Reporter} object for logging errors
+    * @param logOK whether logging to reporter is OK.  false if this
+    *              is called from a reporter object.
+    * @return the PNG encoded screenshot or null on failure
+    */
+
+   public static byte[] captureScreen(Reporter reporter, boolean logOK) {
+      Browser browser = reporter.getBrowser();
+      Robot r = null;
+
+      if (browser != null &&
+          (browser.isHeadless() || !browser.isLocal() ||
+           GraphicsEnvironment.isHeadless())) {
+         return captureBrowser(browser, reporter, logOK);
+      }
+
       try {
          r = new Robot();
       } catch (java.awt.AWTException e) {
+         if (browser != null) {
+            return captureBrowser(browser, reporter, logOK);
+         }
          if (logOK) {
             reporter.ReportError("Screenshot failed (running headless?)");
             reporter.ReportException(e);
          }
-         return false;
+         return null;
       }
 
       Rectangle rec = new Rectangle();
@@ -164,20 +219,41 @@ public class Utils {
       rec.setSize(dim);
       BufferedImage img = r.createScreenCapture(rec);
 
+      ByteArrayOutputStream png = new ByteArrayOutputStream();
       try {
-         ImageIO.write(img, "png", new File(outputFile));
+         ImageIO.write(img, "png", png);
       } catch (java.io.IOException e) {
          if (logOK) {
             reporter.ReportError("Screenshot failed (I/O Error)");
             reporter.ReportException(e);
          }
-         return false;
+         return null;
       }
 
-      reporter.Log(String.format("Screenshot file: %s", outputFile));
-      reporter.Log("Screenshot finished.");
+      return png.toByteArray();
+   }
 
-      return true;
+
+   /**
+    * Have the browser take a screenshot of its page.
+    *
+    * @param browser   the browser
+    * @param reporter  {@link Reporter} object for logging errors
+    * @param logOK     whether logging to reporter is OK
+    * @return the PNG encoded screenshot or null on failure
+    */
+
+   private static byte[] captureBrowser(Browser browser, Reporter reporter,
+                                        boolean logOK) {
+      try {
+         return browser.screenshot();
+      } catch (WebDriverException e) {
+         if (logOK) {
+            reporter.ReportError("Screenshot failed (browser screenshot)");
+            reporter.ReportException(e);
+         }
+         return null;
+      }
    }
 
 
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2011-2012 SugarCRM Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You
+ * may may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  Please see the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package org.sugarcrm.voodoodriver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import org.openqa.selenium.WebDriver;
+
+
+/**
+ * The browser's open windows, as of the last look.
+ *
+ * <p>{@link #refresh()} fetches the window handles once per polling
+ * round.  Membership checks are then hash lookups, and handles keep
+ * WebDriver's order for lookups by index.  Each window's URL and title
+ * are read together the first time either is asked for in a round,
+ * so the browser switches into each window at most once per
+ * round.</p>
+ *
+ * <p>Reading a window's URL and title leaves that window selected;
+ * callers switch back to the window they want.</p>
+ */
+
+public class WindowRegistry {
+
+   /**
+    * The browser whose windows are tracked.
+    */
+
+   private Browser browser;
+
+
+   /**
+    * Window handles in WebDriver's order.
+    */
+
+   private ArrayList<String> handles = new ArrayList<String>();
+
+
+   /**
+    * The same handles, for membership checks.
+    */
+
+   private HashSet<String> handleSet = new HashSet<String>();
+
+
+   /**
+    * {url, title} of each window read this round.
+    */
+
+   private HashMap<String, String[]> info = new HashMap<String, String[]>();
+
+
+   /**
+    * Create a window registry.
+    *
+    * @param browser  the browser whose windows are tracked
+    */
+
+   public WindowRegistry(Browser browser) {
+      this.browser = browser;
+   }
+
+
+   /**
+    * Start a new polling round.
+    *
+    * The window handles are fetched again and all URLs and titles
+    * read in the previous round are forgotten.
+    *
+    * @return the window handles, in WebDriver's order
+    */
+
+   public List<String> refresh() {
+      this.handles = new ArrayList<String>(this.browser.getDriver()
+                                           .getWindowHandles());
+      this.handleSet = new HashSet<String>(this.handles);
+      this.info.clear();
+
+      return this.handles;
+   }
+
+
+   /**
+    * Whether a window was open at the last refresh.
+    *
+    * @param handle  the window handle
+    * @return true if the window was open
+    */
+
+   public boolean contains(String handle) {
+      return this.handleSet.contains(handle);
+   }
+
+
+   /**
+    * Get the window handles from the last refresh.
+    *
+    * @return the window handles, in WebDriver's order
+    */
+
+   public List<String> getHandles() {
+      return this.handles;
+   }
+
+
+   /**
+    * Get a window's URL.
+    *
+    * @param handle  the window handle
+    * @return the URL of the page in the window
+    */
+
+   public String getUrl(String handle) {
+      return read(handle)[0];
+   }
+
+
+   /**
+    * Get a window's title.
+    *
+    * @param handle  the window handle
+    * @return the title of the page in the window
+    */
+
+   public String getTitle(String handle) {
+      return read(handle)[1];
+   }
+
+
+   /**
+    * Read a window's URL and title, unless already read this round.
+    */
+
+   private String[] read(String handle) {
+      String[] i = this.info.get(handle);
+
+      if (i == null) {
+         WebDriver w = this.browser.getDriver().switchTo().window(handle);
+         i = new String[] {w.getCurrentUrl(), w.getTitle()};
+         this.info.put(handle, i);
+      }
+
+      return i;
+   }
+}